@@ -0,0 +1,128 @@
+package com.uetty.cloud.utils;
+
+import com.fasterxml.jackson.databind.DatabindContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jackson 类型短id
+ * <p>
+ * 注册过的类型写入 "#id" 代替完整类名，没有注册的类型仍写入完整类名；读取时两种都支持，旧数据可以继续读取。
+ * id 写入数据后不能修改或复用，1~99 为内置类型保留
+ */
+public class JacksonTypeIds {
+
+    private static final String PREFIX = "#";
+
+    private static final Map<Class<?>, String> CLASS_IDS = new ConcurrentHashMap<>();
+
+    private static final Map<String, Class<?>> ID_CLASSES = new ConcurrentHashMap<>();
+
+    static {
+        register(1, Long.class);
+        register(2, ArrayList.class);
+        register(3, LinkedList.class);
+        register(4, HashMap.class);
+        register(5, LinkedHashMap.class);
+        register(6, TreeMap.class);
+        register(7, HashSet.class);
+        register(8, LinkedHashSet.class);
+        register(9, TreeSet.class);
+        register(10, Date.class);
+        register(11, java.sql.Timestamp.class);
+        register(12, BigInteger.class);
+    }
+
+    /**
+     * @param id    类型id（业务类型使用 100 以上）
+     * @param clazz 类型
+     */
+    public static synchronized void register(int id, Class<?> clazz) {
+        String typeId = PREFIX + id;
+        Class<?> old = ID_CLASSES.get(typeId);
+        if (old != null && old != clazz) {
+            throw new IllegalArgumentException("类型id " + id + " 已被 " + old.getName() + " 使用");
+        }
+        String oldId = CLASS_IDS.get(clazz);
+        if (oldId != null && !oldId.equals(typeId)) {
+            throw new IllegalArgumentException(clazz.getName() + " 已注册类型id " + oldId);
+        }
+        ID_CLASSES.put(typeId, clazz);
+        CLASS_IDS.put(clazz, typeId);
+    }
+
+    /**
+     * @return 类型id，没有注册时为空
+     */
+    public static String idOf(Class<?> clazz) {
+        return CLASS_IDS.get(clazz);
+    }
+
+    /**
+     * @return 类型的数字id，没有注册时为 -1
+     */
+    public static int numericIdOf(Class<?> clazz) {
+        String id = CLASS_IDS.get(clazz);
+        return id == null ? -1 : Integer.parseInt(id.substring(PREFIX.length()));
+    }
+
+    /**
+     * @return 数字id对应的类型，没有注册时为空
+     */
+    public static Class<?> classOf(int id) {
+        return ID_CLASSES.get(PREFIX + id);
+    }
+
+    /**
+     * @return 类型，不是注册的类型id时为空
+     */
+    public static Class<?> classOf(String id) {
+        return id.startsWith(PREFIX) ? ID_CLASSES.get(id) : null;
+    }
+
+    /**
+     * 写入时优先使用短id，读取时兼容短id和完整类名
+     */
+    public static class IdResolver extends ClassNameIdResolver {
+
+        public IdResolver(JavaType baseType, TypeFactory typeFactory) {
+            super(baseType, typeFactory);
+        }
+
+        @Override
+        public String idFromValue(Object value) {
+            String id = idOf(value.getClass());
+            return id == null ? super.idFromValue(value) : id;
+        }
+
+        @Override
+        public String idFromValueAndType(Object value, Class<?> type) {
+            String id = idOf(type);
+            return id == null ? super.idFromValueAndType(value, type) : id;
+        }
+
+        @Override
+        public JavaType typeFromId(DatabindContext context, String id) throws IOException {
+            Class<?> clazz = classOf(id);
+            if (clazz == null) {
+                return super.typeFromId(context, id);
+            }
+            return _typeFactory.constructSpecializedType(_baseType, clazz);
+        }
+    }
+}
@@ -1,85 +1,197 @@
 package com.uetty.cloud.utils;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.ObjectMapper.DefaultTypeResolverBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.introspect.AnnotatedConstructor;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.jsontype.TypeIdResolver;
 import com.fasterxml.jackson.databind.jsontype.TypeResolverBuilder;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.util.ClassUtil;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Slf4j
 public class JacksonUtil {
 
     public static JacksonUtil jackson = new JacksonUtil().withCamel2Lower().withIgnoreUnknownPro();
 
     // jackson对象
-    public static JacksonUtil jacksonCode = new JacksonUtil()
-            .withNotNull()
-            .withDisFailUnknown()
-            .withIgnoreUnknown()
-            .withBigAsPlain()
-            .withAllowFieldNames()
-            .withAllowControlChars()
-            .withAllowSingleQuotes()
-            .withDefualtTyping(new DefaultTypeResolverBuilder(DefaultTyping.NON_FINAL) {
-
-                private static final long serialVersionUID = 1L;
-
-                @Override
-                public boolean useForType(JavaType javaType) {
-
-                    // 这个默认值是什么类型的定义。
-                    switch (this._appliesFor) {
-                        // 涵盖的所有类型加上他们的所有数组类型。
-                        case NON_CONCRETE_AND_ARRAYS:
-                            while (javaType.isArrayType()) {
-                                javaType = javaType.getContentType();
-                            }
-                            // 声明类型为{@link
-                            // java.lang.Object}的属性或抽象类型（抽象类或接口）。
-                        case OBJECT_AND_NON_CONCRETE:
-                            return (javaType.getRawClass() == Object.class) || !javaType.isConcrete();
-                        case NON_FINAL:
-                            while (javaType.isArrayType()) {
-                                javaType = javaType.getContentType();
-                            }
-                            if (javaType.getRawClass() == Long.class) {
-                                return true;
-                            }
-                            return !javaType.isFinal();
-                        default:
-                            return (javaType.getRawClass() == Object.class);
-                    }
+    public static JacksonUtil jacksonCode = jacksonCode(null);
+
+    /**
+     * @param factory 数据格式（为空时为json，可以传入 Smile、CBOR 等二进制格式）
+     * @return 与 jacksonCode 相同配置（带类型信息）的对象
+     */
+    public static JacksonUtil jacksonCode(JsonFactory factory) {
+        return new JacksonUtil(factory)
+                .withNotNull()
+                .withDisFailUnknown()
+                .withIgnoreUnknown()
+                .withBigAsPlain()
+                .withAllowFieldNames()
+                .withAllowControlChars()
+                .withAllowSingleQuotes()
+                .withDefualtTyping(codeTyping());
+    }
+
+    /**
+     * @return 非 final 类型和 Long 写入类型信息（注册过的类型写入短id）
+     */
+    private static TypeResolverBuilder<?> codeTyping() {
+        return new DefaultTypeResolverBuilder(DefaultTyping.NON_FINAL) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean useForType(JavaType javaType) {
+
+                // 这个默认值是什么类型的定义。
+                switch (this._appliesFor) {
+                    // 涵盖的所有类型加上他们的所有数组类型。
+                    case NON_CONCRETE_AND_ARRAYS:
+                        while (javaType.isArrayType()) {
+                            javaType = javaType.getContentType();
+                        }
+                        // 声明类型为{@link
+                        // java.lang.Object}的属性或抽象类型（抽象类或接口）。
+                    case OBJECT_AND_NON_CONCRETE:
+                        return (javaType.getRawClass() == Object.class) || !javaType.isConcrete();
+                    case NON_FINAL:
+                        while (javaType.isArrayType()) {
+                            javaType = javaType.getContentType();
+                        }
+                        if (javaType.getRawClass() == Long.class) {
+                            return true;
+                        }
+                        return !javaType.isFinal();
+                    default:
+                        return (javaType.getRawClass() == Object.class);
                 }
+            }
 
-            });
+            /**
+             * 注册过的类型写入短id，见 {@link JacksonTypeIds}
+             */
+            @Override
+            protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes,
+                                                boolean forSer, boolean forDeser) {
+                return new JacksonTypeIds.IdResolver(baseType, config.getTypeFactory());
+            }
 
-    // 模式
-    private ObjectMapper mapper;
+        };
+    }
+
+    // 数据格式
+    private final JsonFactory factory;
+
+    public JacksonUtil() {
+        this(null);
+    }
+
+    public JacksonUtil(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    // 模式（volatile 保证双重检查时其他线程看到的是初始化完成的对象）
+    private volatile ObjectMapper mapper;
+
+    // 读取 Object 的 reader
+    private volatile ObjectReader objectReader;
+
+    // writer（ObjectWriter 不可变，可以多线程共用），reader、writer 都不关闭传入的流
+    private volatile ObjectWriter writer;
+
+    // 类型 - reader
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    // 类型 - bean 属性（bean 和 Map 之间直接读写属性，不经过 TokenBuffer）
+    private final ConcurrentMap<Class<?>, BeanProperties> beanProperties = new ConcurrentHashMap<>();
 
     // 单例模式
     private ObjectMapper getMapper() {
-        if (mapper == null) {
-            synchronized (JacksonUtil.class) {
-                if (mapper == null) {
-                    mapper = new ObjectMapper();
+        ObjectMapper current = mapper;
+        if (current == null) {
+            synchronized (this) {
+                current = mapper;
+                if (current == null) {
+                    current = new ObjectMapper(factory);
+                    mapper = current;
                 }
             }
         }
-        return mapper;
+        return current;
+    }
+
+    /**
+     * 修改配置前清空缓存的 reader、writer（reader、writer 创建时复制了当时的配置）
+     */
+    private ObjectMapper configure() {
+        objectReader = null;
+        writer = null;
+        readers.clear();
+        beanProperties.clear();
+        return getMapper();
+    }
+
+    private ObjectWriter writer() {
+        ObjectWriter current = writer;
+        if (current == null) {
+            current = getMapper().writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer = current;
+        }
+        return current;
+    }
+
+    private ObjectReader reader() {
+        ObjectReader current = objectReader;
+        if (current == null) {
+            current = getMapper().readerFor(Object.class).without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            objectReader = current;
+        }
+        return current;
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, key -> getMapper().readerFor(key).without(JsonParser.Feature.AUTO_CLOSE_SOURCE));
     }
 
     /**
      * Float反序列化成BigDECIMAL
      */
     public JacksonUtil witDishBigForFloats() {
-        getMapper().disable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        configure().disable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
         return this;
     }
 
@@ -87,7 +199,7 @@ public class JacksonUtil {
      * 反序列化允许null
      */
     public JacksonUtil withDisAcceptNull() {
-        getMapper().disable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+        configure().disable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
         return this;
     }
 
@@ -95,7 +207,7 @@ public class JacksonUtil {
      * 反序列化允许null,String ""
      */
     public JacksonUtil withDisAcceptStringNull() {
-        getMapper().disable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+        configure().disable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
         return this;
     }
 
@@ -103,7 +215,7 @@ public class JacksonUtil {
      * Float强转成int
      */
     public JacksonUtil withDisFloatAsInt() {
-        getMapper().disable(DeserializationFeature.ACCEPT_FLOAT_AS_INT);
+        configure().disable(DeserializationFeature.ACCEPT_FLOAT_AS_INT);
         return this;
     }
 
@@ -111,7 +223,7 @@ public class JacksonUtil {
      * String[]强转成数组
      */
     public JacksonUtil withDisStringAsArray() {
-        getMapper().disable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+        configure().disable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
         return this;
     }
 
@@ -119,12 +231,12 @@ public class JacksonUtil {
      * date转化成timeZone
      */
     public JacksonUtil withDisDataAsTimeZone() {
-        getMapper().disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE);
+        configure().disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE);
         return this;
     }
 
     public JacksonUtil withDisFETCH() {
-        getMapper().disable(DeserializationFeature.EAGER_DESERIALIZER_FETCH);
+        configure().disable(DeserializationFeature.EAGER_DESERIALIZER_FETCH);
         return this;
     }
 
@@ -132,7 +244,7 @@ public class JacksonUtil {
      * 失败忽略
      */
     public JacksonUtil withDisFailIgnoged() {
-        getMapper().disable(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES);
+        configure().disable(DeserializationFeature.FAIL_ON_IGNORED_PROPERTIES);
         return this;
     }
 
@@ -140,7 +252,7 @@ public class JacksonUtil {
      * 未知属性
      */
     public JacksonUtil withDisFailUnknown() {
-        getMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        configure().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
         return this;
     }
 
@@ -148,7 +260,7 @@ public class JacksonUtil {
      * 没定义的属性忽略
      */
     public JacksonUtil withIgnoreUnknown() {
-        getMapper().enable(JsonGenerator.Feature.IGNORE_UNKNOWN);
+        configure().enable(JsonGenerator.Feature.IGNORE_UNKNOWN);
         return this;
     }
 
@@ -156,7 +268,7 @@ public class JacksonUtil {
      * 没定义的属性忽略
      */
     public JacksonUtil withIgnoreUnknownPro() {
-        getMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        configure().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         return this;
     }
 
@@ -164,7 +276,7 @@ public class JacksonUtil {
      * 用科学计数法表示
      */
     public JacksonUtil withBigAsPlain() {
-        getMapper().enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN);
+        configure().enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN);
         return this;
     }
 
@@ -174,7 +286,7 @@ public class JacksonUtil {
      * *这是非标准功能，默认情况下禁用。          
      */
     public JacksonUtil withAllowFieldNames() {
-        getMapper().enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
+        configure().enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
         return this;
     }
 
@@ -183,7 +295,7 @@ public class JacksonUtil {
      * 如果将feature设置为false，则会抛出异常遇到字符由于JSON规范要求引用所有控制字符，这是非标准功能，默认情况下禁用。
      */
     public JacksonUtil withAllowControlChars() {
-        getMapper().enable(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS);
+        configure().enable(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS);
         return this;
     }
 
@@ -192,14 +304,14 @@ public class JacksonUtil {
      * 如果是这样，这是除了其他可接受的标记之外。但不是JSON规范）。 由于JSON规范要求使用双引号字段名称，这是非标准功能，默认情况下禁用。
      */
     public JacksonUtil withAllowSingleQuotes() {
-        getMapper().enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES);
+        configure().enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES);
         return this;
     }
 
     public JacksonUtil withDefualtTyping(TypeResolverBuilder<?> typeResolverBuilder) {
         typeResolverBuilder.init(JsonTypeInfo.Id.CLASS, null);
         typeResolverBuilder.inclusion(JsonTypeInfo.As.PROPERTY);
-        getMapper().setDefaultTyping(typeResolverBuilder);
+        configure().setDefaultTyping(typeResolverBuilder);
         return this;
     }
 
@@ -208,7 +320,7 @@ public class JacksonUtil {
      * 财产，如有任何定义; 如果没有定义，那么 全局序列化包含细节。
      */
     public JacksonUtil withUseDefaults() {
-        getMapper().setSerializationInclusion(Include.USE_DEFAULTS);
+        configure().setSerializationInclusion(Include.USE_DEFAULTS);
         return this;
     }
 
@@ -216,7 +328,7 @@ public class JacksonUtil {
      * 表示所有的属性
      */
     public JacksonUtil withAll() {
-        getMapper().setSerializationInclusion(Include.ALWAYS);
+        configure().setSerializationInclusion(Include.ALWAYS);
         return this;
     }
 
@@ -224,7 +336,7 @@ public class JacksonUtil {
      * 表示只有具有值的属性
      */
     public JacksonUtil withNotEmpty() {
-        getMapper().setSerializationInclusion(Include.NON_EMPTY);
+        configure().setSerializationInclusion(Include.NON_EMPTY);
         return this;
     }
 
@@ -233,7 +345,7 @@ public class JacksonUtil {
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
     public JacksonUtil withOverrideAccess() {
-        getMapper().getSerializationConfig().canOverrideAccessModifiers();
+        configure().getSerializationConfig().canOverrideAccessModifiers();
         return this;
     }
 
@@ -241,7 +353,7 @@ public class JacksonUtil {
      * 访问者确定是否可以尝试强制重写访问
      */
     public JacksonUtil withCompileString(String src) {
-        getMapper().getSerializationConfig().compileString(src);
+        configure().getSerializationConfig().compileString(src);
         return this;
     }
 
@@ -249,7 +361,7 @@ public class JacksonUtil {
      * 配置对象工厂
      */
     public JacksonUtil withConstruct() {
-        getMapper().getSerializationConfig().constructDefaultPrettyPrinter();
+        configure().getSerializationConfig().constructDefaultPrettyPrinter();
         return this;
     }
 
@@ -257,7 +369,7 @@ public class JacksonUtil {
      * 设置跟节点名称
      */
     public JacksonUtil withRootName(String rootName) {
-        getMapper().getSerializationConfig().withRootName(rootName);
+        configure().getSerializationConfig().withRootName(rootName);
         return this;
     }
 
@@ -265,7 +377,7 @@ public class JacksonUtil {
      * 表示仅属性为非空的值
      */
     public JacksonUtil withNotNull() {
-        getMapper().setSerializationInclusion(Include.NON_NULL);
+        configure().setSerializationInclusion(Include.NON_NULL);
         return this;
     }
 
@@ -273,7 +385,7 @@ public class JacksonUtil {
      * 是否缩放排列输出
      */
     public JacksonUtil withOrder() {
-        getMapper().configure(SerializationFeature.INDENT_OUTPUT, true);
+        configure().configure(SerializationFeature.INDENT_OUTPUT, true);
         return this;
     }
 
@@ -281,7 +393,7 @@ public class JacksonUtil {
      * 是否环绕根元素(以类名作为根元素) 默认是true
      */
     public JacksonUtil withRoot() {
-        getMapper().configure(SerializationFeature.WRAP_ROOT_VALUE, false);
+        configure().configure(SerializationFeature.WRAP_ROOT_VALUE, false);
         return this;
     }
 
@@ -289,7 +401,7 @@ public class JacksonUtil {
      * 将下划线转化成驼峰
      */
     public JacksonUtil withCamel2Lower() {
-        getMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        configure().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
         return this;
     }
 
@@ -297,7 +409,7 @@ public class JacksonUtil {
      * 将首字母小写转化为大写
      */
     public JacksonUtil with2CamelCase() {
-        getMapper().setPropertyNamingStrategy(PropertyNamingStrategy.UPPER_CAMEL_CASE);
+        configure().setPropertyNamingStrategy(PropertyNamingStrategy.UPPER_CAMEL_CASE);
         return this;
     }
 
@@ -305,7 +417,7 @@ public class JacksonUtil {
      * 转化成全小写
      */
     public JacksonUtil with2Lower() {
-        getMapper().setPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CASE);
+        configure().setPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CASE);
         return this;
     }
 
@@ -313,7 +425,7 @@ public class JacksonUtil {
      * 序列化日期时以timestamps
      */
     public JacksonUtil withTimestamps() {
-        getMapper().configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+        configure().configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
         return this;
     }
 
@@ -321,7 +433,7 @@ public class JacksonUtil {
      * 将枚举以String输出
      */
     public JacksonUtil withEnum2String() {
-        getMapper().configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, false);
+        configure().configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, false);
         return this;
     }
 
@@ -329,7 +441,7 @@ public class JacksonUtil {
      * 将枚举以Ordinal输出
      */
     public JacksonUtil withEnum2Ordinal() {
-        getMapper().configure(SerializationFeature.WRITE_ENUMS_USING_INDEX, true);
+        configure().configure(SerializationFeature.WRITE_ENUMS_USING_INDEX, true);
         return this;
     }
 
@@ -337,7 +449,7 @@ public class JacksonUtil {
      * 单个元素的数组不以数组输出
      */
     public JacksonUtil withArray() {
-        getMapper().configure(SerializationFeature.WRITE_SINGLE_ELEM_ARRAYS_UNWRAPPED, true);
+        configure().configure(SerializationFeature.WRITE_SINGLE_ELEM_ARRAYS_UNWRAPPED, true);
         return this;
     }
 
@@ -345,7 +457,7 @@ public class JacksonUtil {
      * 序列化Map时对key进行排序操作
      */
     public JacksonUtil withMapOrder() {
-        getMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        configure().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
         return this;
     }
 
@@ -353,7 +465,7 @@ public class JacksonUtil {
      * 序列化char[]时以json数组输出
      */
     public JacksonUtil withChar() {
-        getMapper().configure(SerializationFeature.WRITE_CHAR_ARRAYS_AS_JSON_ARRAYS, true);
+        configure().configure(SerializationFeature.WRITE_CHAR_ARRAYS_AS_JSON_ARRAYS, true);
         return this;
     }
 
@@ -364,14 +476,91 @@ public class JacksonUtil {
         if (obj == null) {
             return null;
         }
-        return getMapper().writeValueAsString(obj);
+        return writer().writeValueAsString(obj);
     }
 
     /**
      * 将Object对象转化成byte数组
      */
     public byte[] obj2Byte(Object obj) throws JsonProcessingException {
-        return getMapper().writeValueAsBytes(obj);
+        return writer().writeValueAsBytes(obj);
+    }
+
+    /**
+     * 将Object对象写入输出流（不创建中间数组，不关闭输出流）
+     */
+    public void obj2Stream(Object obj, OutputStream out) throws IOException {
+        writer().writeValue(out, obj);
+    }
+
+    /**
+     * 将Object对象写入文件
+     */
+    public void obj2File(Object obj, Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            obj2Stream(obj, out);
+        }
+    }
+
+    /**
+     * 从输入流读取Obj（不关闭输入流）
+     */
+    public <T> T stream2Obj(InputStream in) throws IOException {
+        return reader().readValue(in);
+    }
+
+    /**
+     * 从输入流读取bean对象（不关闭输入流）
+     */
+    public <T> T stream2Obj(InputStream in, Class<T> t) throws IOException {
+        return reader(t).readValue(in);
+    }
+
+    /**
+     * 从文件读取bean对象
+     */
+    public <T> T file2Obj(Path path, Class<T> t) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return stream2Obj(in, t);
+        }
+    }
+
+    /**
+     * 逐个读取顶层数组的元素（不一次读入整个数组），使用完需要关闭
+     */
+    public <T> MappingIterator<T> arrayIterator(InputStream in, Class<T> t) throws IOException {
+        return reader(t).readValues(in);
+    }
+
+    /**
+     * 逐个读取顶层数组的元素，按需（背压）读取，结束或取消时关闭输入流
+     *
+     * @param in 每次订阅打开的输入流
+     */
+    public <T> Flux<T> arrayFlux(Callable<InputStream> in, Class<T> t) {
+        return Flux.using(in,
+                stream -> Flux.defer(() -> {
+                    try {
+                        MappingIterator<T> iterator = arrayIterator(stream, t);
+                        return Flux.fromIterable(() -> iterator);
+                    } catch (IOException e) {
+                        return Flux.error(e);
+                    }
+                }),
+                stream -> {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        log.warn("关闭输入流失败", e);
+                    }
+                });
+    }
+
+    /**
+     * 逐个读取文件中顶层数组的元素
+     */
+    public <T> Flux<T> arrayFlux(Path path, Class<T> t) {
+        return arrayFlux(() -> new BufferedInputStream(Files.newInputStream(path)), t);
     }
 
     /**
@@ -381,48 +570,197 @@ public class JacksonUtil {
         if (json == null) {
             return null;
         }
-        return getMapper().readValue(json, new TypeReference<Object>() {
-        });
+        return reader().readValue(json);
     }
 
     /**
      * 将byte数组转换成Obj
      */
     public <T> T byte2Obj(byte[] by) throws JsonParseException, JsonMappingException, IOException {
-        return getMapper().readValue(by, new TypeReference<Object>() {
-        });
+        return reader().readValue(by);
+    }
+
+    /**
+     * 将byte数组的一段转换成Obj
+     */
+    public <T> T byte2Obj(byte[] by, int offset, int len) throws JsonParseException, JsonMappingException, IOException {
+        return reader().readValue(by, offset, len);
     }
 
     /**
      * 将json转化成bean对象
      */
     public <T> T json2Obj(String json, Class<T> t) throws JsonParseException, JsonMappingException, IOException {
-        return getMapper().readValue(json, t);
+        return reader(t).readValue(json);
     }
 
+    /**
+     * 将bean转换成Obj（Map等），不经过json字符串
+     * <p>
+     * 没有类型信息的配置下，普通bean直接读取属性写入Map（不经过 TokenBuffer），属性值为基本类型时直接使用，
+     * 为bean时递归转换，其他类型（集合、日期等）和带类型信息的配置使用 convertValue
+     *
+     * @throws IllegalArgumentException 转换失败
+     */
+    @SuppressWarnings("unchecked")
     public <T> T bean2Obj(Object obj) {
-        try {
-            return getMapper().readValue(getMapper().writeValueAsString(obj), new TypeReference<Object>() {
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return (T) toObj(obj);
     }
 
     /**
-     * 将obj转换成对象
+     * 将obj转换成对象（不经过json字符串，obj 已经是该类型时直接返回）
+     * <p>
+     * 没有类型信息的配置下，Map转换成有无参构造器的普通bean时直接写入属性（不经过 TokenBuffer），
+     * 属性值类型不一致时只转换该属性的值，其他情况使用 convertValue
      */
     public <T> T obj2Bean(Object obj, Class<T> t)
             throws JsonParseException, JsonMappingException, JsonProcessingException, IOException {
-        return getMapper().readValue(getMapper().writeValueAsString(obj), t);
+        if (obj == null) {
+            return null;
+        }
+        if (t.isInstance(obj)) {
+            return t.cast(obj);
+        }
+        try {
+            BeanProperties properties = obj instanceof Map ? directProperties(t) : null;
+            if (properties != null && properties.constructor != null) {
+                return t.cast(map2Bean((Map<?, ?>) obj, properties));
+            }
+            return getMapper().convertValue(obj, t);
+        } catch (IllegalArgumentException e) {
+            throw JsonMappingException.fromUnexpectedIOE(new IOException(e.getMessage(), e));
+        }
+    }
+
+    private Object toObj(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Integer || value instanceof Long || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof Short || value instanceof Byte) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        BeanProperties properties = directProperties(value.getClass());
+        if (properties == null) {
+            return getMapper().convertValue(value, Object.class);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (BeanPropertyDefinition property : properties.getters) {
+            Object propertyValue = property.getAccessor().getValue(value);
+            if (!properties.excluded(property, propertyValue)) {
+                map.put(property.getName(), toObj(propertyValue));
+            }
+        }
+        return map;
+    }
+
+    private Object map2Bean(Map<?, ?> map, BeanProperties properties) throws JsonMappingException {
+        Object bean;
+        try {
+            bean = properties.constructor.call();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("创建对象失败: " + properties.constructor.getDeclaringClass().getName(), e);
+        }
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            String name = String.valueOf(entry.getKey());
+            BeanPropertyDefinition property = properties.setters.get(name);
+            if (property == null) {
+                if (!properties.ignoreUnknown && !properties.ignored.contains(name)) {
+                    throw JsonMappingException.from((JsonParser) null, "未知属性: " + name + "（" + bean.getClass().getName() + "）");
+                }
+                continue;
+            }
+            JavaType type = property.getPrimaryType();
+            Object value = entry.getValue();
+            if (value == null) {
+                if (type.isPrimitive()) {
+                    continue;
+                }
+            } else if (type.isContainerType() || !ClassUtil.wrapperType(type.getRawClass()).isInstance(value)) {
+                value = getMapper().convertValue(value, type);
+            }
+            property.getNonConstructorMutator().setValue(bean, value);
+        }
+        return bean;
+    }
+
+    /**
+     * @return 可以直接读写属性的bean的属性，带类型信息的配置、不是普通bean、有自定义序列化的类型为空
+     */
+    private BeanProperties directProperties(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface() || type.getName().startsWith("java.")
+                || Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)) {
+            return null;
+        }
+        BeanProperties properties = beanProperties.computeIfAbsent(type, this::introspect);
+        return properties.direct ? properties : null;
+    }
+
+    private BeanProperties introspect(Class<?> type) {
+        ObjectMapper mapper = getMapper();
+        JavaType javaType = mapper.constructType(type);
+        SerializationConfig serializationConfig = mapper.getSerializationConfig();
+        DeserializationConfig deserializationConfig = mapper.getDeserializationConfig();
+        if (serializationConfig.getDefaultTyper(TypeFactory.unknownType()) != null) {
+            return BeanProperties.NOT_DIRECT;
+        }
+        AnnotationIntrospector introspector = serializationConfig.getAnnotationIntrospector();
+        boolean force = serializationConfig.isEnabled(MapperFeature.OVERRIDE_PUBLIC_ACCESS_MODIFIERS);
+        //读取：只使用 getter、字段，没有自定义序列化
+        BeanDescription serialization = serializationConfig.introspect(javaType);
+        if (serialization.findAnyGetter() != null || serialization.findJsonValueAccessor() != null
+                || introspector.findSerializer(serialization.getClassInfo()) != null) {
+            return BeanProperties.NOT_DIRECT;
+        }
+        List<BeanPropertyDefinition> getters = new ArrayList<>();
+        for (BeanPropertyDefinition property : serialization.findProperties()) {
+            AnnotatedMember accessor = property.getAccessor();
+            if (accessor == null) {
+                continue;
+            }
+            if (introspector.findSerializer(accessor) != null) {
+                return BeanProperties.NOT_DIRECT;
+            }
+            accessor.fixAccess(force);
+            getters.add(property);
+        }
+        //写入：无参构造器 + setter、字段，没有构造器参数和自定义反序列化
+        BeanDescription deserialization = deserializationConfig.introspect(javaType);
+        AnnotatedConstructor constructor = deserialization.findDefaultConstructor();
+        Map<String, BeanPropertyDefinition> setters = new LinkedHashMap<>();
+        if (deserialization.findAnySetterAccessor() != null
+                || introspector.findDeserializer(deserialization.getClassInfo()) != null) {
+            constructor = null;
+        }
+        for (BeanPropertyDefinition property : deserialization.findProperties()) {
+            AnnotatedMember mutator = property.getNonConstructorMutator();
+            if (property.hasConstructorParameter() || (mutator != null && introspector.findDeserializer(mutator) != null)) {
+                constructor = null;
+                break;
+            }
+            if (mutator != null) {
+                mutator.fixAccess(force);
+                setters.put(property.getName(), property);
+            }
+        }
+        if (constructor != null) {
+            constructor.fixAccess(force);
+        }
+        JsonIgnoreProperties.Value ignorals = deserializationConfig.getDefaultPropertyIgnorals(type, deserialization.getClassInfo());
+        boolean ignoreUnknown = !deserializationConfig.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                || (ignorals != null && ignorals.getIgnoreUnknown());
+        Set<String> ignored = ignorals == null ? Collections.emptySet() : ignorals.findIgnoredForDeserialization();
+        return new BeanProperties(getters, serializationConfig.getDefaultPropertyInclusion(), constructor, setters, ignoreUnknown, ignored);
     }
 
     /**
      * 将byte数组转换成对象
      */
     public <T> T byte2Bean(byte[] src, Class<T> t) throws JsonParseException, JsonMappingException, IOException {
-        return getMapper().readValue(src, t);
+        return reader(t).readValue(src);
     }
 
     public void printJson(Object obj) throws JsonProcessingException {
@@ -441,12 +779,78 @@ public class JacksonUtil {
      * 清楚mapper
      */
     public void clear() {
-        if (getMapper() != null) {
-            synchronized (this) {
-                if (getMapper() != null) {
-                    this.mapper = null;
-                }
+        synchronized (this) {
+            configure();
+            this.mapper = null;
+        }
+    }
+
+    /**
+     * bean 的属性（按当前配置收集，修改配置时清空）
+     */
+    private static final class BeanProperties {
+
+        private static final BeanProperties NOT_DIRECT = new BeanProperties();
+
+        // 是否可以直接读写属性
+        private final boolean direct;
+
+        // 读取的属性（getter、字段）
+        private final List<BeanPropertyDefinition> getters;
+
+        // 默认的属性包含规则
+        private final JsonInclude.Value inclusion;
+
+        // 无参构造器，为空时写入使用 convertValue
+        private final AnnotatedConstructor constructor;
+
+        // 属性名 - 写入的属性（setter、字段）
+        private final Map<String, BeanPropertyDefinition> setters;
+
+        // 是否忽略未知属性
+        private final boolean ignoreUnknown;
+
+        // 忽略的属性
+        private final Set<String> ignored;
+
+        private BeanProperties() {
+            this.direct = false;
+            this.getters = Collections.emptyList();
+            this.inclusion = null;
+            this.constructor = null;
+            this.setters = Collections.emptyMap();
+            this.ignoreUnknown = true;
+            this.ignored = Collections.emptySet();
+        }
+
+        private BeanProperties(List<BeanPropertyDefinition> getters, JsonInclude.Value inclusion, AnnotatedConstructor constructor,
+                               Map<String, BeanPropertyDefinition> setters, boolean ignoreUnknown, Set<String> ignored) {
+            this.direct = true;
+            this.getters = getters;
+            this.inclusion = inclusion;
+            this.constructor = constructor;
+            this.setters = setters;
+            this.ignoreUnknown = ignoreUnknown;
+            this.ignored = ignored;
+        }
+
+        /**
+         * @return 属性值是否按包含规则排除（NON_NULL 排除 null，NON_EMPTY 等还排除空字符串、空集合）
+         */
+        private boolean excluded(BeanPropertyDefinition property, Object value) {
+            Include include = inclusion.withOverrides(property.findInclusion()).getValueInclusion();
+            if (include == Include.ALWAYS || include == Include.USE_DEFAULTS) {
+                return false;
+            }
+            if (value == null) {
+                return true;
+            }
+            if (include == Include.NON_NULL || include == Include.NON_ABSENT) {
+                return false;
             }
+            return (value instanceof String && ((String) value).isEmpty())
+                    || (value instanceof Collection && ((Collection<?>) value).isEmpty())
+                    || (value instanceof Map && ((Map<?, ?>) value).isEmpty());
         }
     }
 
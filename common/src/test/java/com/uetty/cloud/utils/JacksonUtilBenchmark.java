@@ -0,0 +1,127 @@
+package com.uetty.cloud.utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import lombok.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JacksonUtil 基准测试：缓存的 reader/writer 和每次通过 ObjectMapper 读写对比，
+ * bean 和 Map 直接转换和经过 json 字符串转换对比
+ * <p>
+ * uncached / roundTrip 是缓存之前 JacksonUtil 的实现（相同配置的 ObjectMapper）。
+ * 运行：先 mvn test-compile 生成基准测试代码，再运行 main 方法（附带 gc 分配统计，相当于 -prof gc）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonUtilBenchmark {
+
+    private final JacksonUtil jackson = JacksonUtil.jackson;
+
+    private ObjectMapper mapper;
+
+    private Order order;
+
+    private String json;
+
+    private Map<String, Object> map;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper()
+                .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        order = new Order();
+        order.setOrderId(10086L);
+        order.setUserName("uetty");
+        order.setAmount(199.5);
+        order.setPaid(true);
+        order.setTags(Arrays.asList("vip", "express"));
+        json = jackson.obj2Json(order);
+        map = jackson.bean2Obj(order);
+    }
+
+    @Benchmark
+    public Order readCached() throws IOException {
+        return jackson.json2Obj(json, Order.class);
+    }
+
+    @Benchmark
+    public Order readUncached() throws IOException {
+        return mapper.readValue(json, Order.class);
+    }
+
+    @Benchmark
+    public String writeCached() throws IOException {
+        return jackson.obj2Json(order);
+    }
+
+    @Benchmark
+    public String writeUncached() throws IOException {
+        return mapper.writeValueAsString(order);
+    }
+
+    @Benchmark
+    public Object bean2MapDirect() {
+        return jackson.bean2Obj(order);
+    }
+
+    @Benchmark
+    public Object bean2MapRoundTrip() throws IOException {
+        return mapper.readValue(mapper.writeValueAsString(order), Object.class);
+    }
+
+    @Benchmark
+    public Order map2BeanDirect() throws IOException {
+        return jackson.obj2Bean(map, Order.class);
+    }
+
+    @Benchmark
+    public Order map2BeanRoundTrip() throws IOException {
+        return mapper.readValue(mapper.writeValueAsString(map), Order.class);
+    }
+
+    @Data
+    public static class Order {
+
+        private Long orderId;
+
+        private String userName;
+
+        private Double amount;
+
+        private Boolean paid;
+
+        private List<String> tags;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(JacksonUtilBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
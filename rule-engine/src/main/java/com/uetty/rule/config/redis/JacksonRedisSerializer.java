@@ -1,34 +1,17 @@
 package com.uetty.rule.config.redis;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.uetty.cloud.utils.JacksonUtil;
-import org.springframework.data.redis.serializer.RedisSerializer;
-import org.springframework.data.redis.serializer.SerializationException;
-
-import java.io.IOException;
+import com.uetty.rule.config.redis.serializer.FormatRedisSerializer;
+import com.uetty.rule.config.redis.serializer.SerializerFormat;
 
 /**
  * redis Jackson 序列化
+ * <p>
+ * 写入线程复用的缓冲区，读取时直接读取 ByteBuffer 的底层数组，
+ * 需要 ByteBuffer 读写时使用 {@link #toSerializationPair()}
  */
-public class JacksonRedisSerializer<T> implements RedisSerializer<T> {
-
-    @Override
-    public byte[] serialize(T t) throws SerializationException {
-        try {
-            return JacksonUtil.jacksonCode.obj2Byte(t);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
+public class JacksonRedisSerializer<T> extends FormatRedisSerializer<T> {
 
-    @Override
-    public T deserialize(byte[] bytes) throws SerializationException {
-        try {
-            return JacksonUtil.jacksonCode.byte2Obj(bytes);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return null;
+    public JacksonRedisSerializer() {
+        super(SerializerFormat.JSON);
     }
 }
@@ -1,7 +1,11 @@
 package com.uetty.rule.config.redis;
 
+import com.uetty.rule.config.redis.serializer.SerializerFormat;
 import lombok.Data;
 
+import java.util.List;
+import java.util.Map;
+
 @Data
 public class RedisConfig {
 
@@ -13,6 +17,219 @@ public class RedisConfig {
 
     private String password;
 
+    /**
+     * 命令超时时间（毫秒）
+     */
     private Integer timeout;
 
+    /**
+     * 连接超时时间（毫秒）
+     */
+    private Integer connectTimeout;
+
+    /**
+     * 是否开启 TCP keepalive
+     */
+    private boolean keepAlive = true;
+
+    /**
+     * 是否关闭 Nagle 算法
+     */
+    private boolean tcpNoDelay = true;
+
+    /**
+     * true:所有操作共用一个连接  false:每个操作使用独立连接（开启连接池时从池中获取）
+     */
+    private boolean shareNativeConnection = true;
+
+    /**
+     * I/O 线程数（事件循环），为空时为 CPU 核数
+     */
+    private Integer ioThreadPoolSize;
+
+    /**
+     * 计算线程数（事件分发、反应式调度），为空时为 CPU 核数
+     */
+    private Integer computationThreadPoolSize;
+
+    /**
+     * 连接池
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * 合并 flush（自动 pipeline），只影响当前 redisTemplate 的连接
+     */
+    private Pipelining pipelining = new Pipelining();
+
+    /**
+     * 值序列化格式
+     */
+    private SerializerFormat serializer = SerializerFormat.JSON;
+
+    /**
+     * 值压缩
+     */
+    private Compression compression = new Compression();
+
+    /**
+     * 多节点锁（Redlock）使用的独立redis节点，为空时不创建 ReactiveRedLockOperations；
+     * 超时、socket、连接池等设置继承主配置，节点中配置的超时覆盖主配置
+     */
+    private List<RedisConfig> redLockNodes;
+
+    /**
+     * 集群，配置了节点时使用集群模式（host、port、dbIndex 不生效）
+     */
+    private Cluster cluster = new Cluster();
+
+    /**
+     * 从节点，配置了节点时只读操作可以从从节点读取（单机模式生效）
+     */
+    private Replica replica = new Replica();
+
+    /**
+     * 分片组（名称 - 分片），@RedisKey.redisTemplate 为分片组名称的对象按主键分布到各个分片
+     */
+    private Map<String, Shard> shards;
+
+    @Data
+    public static class Shard {
+
+        /**
+         * 分片节点（独立的单机redis），超时、socket、连接池等设置继承主配置，节点中配置的超时覆盖主配置；
+         * 运行时通过 RedisTemplateRouter.addShard 增加的节点需要同时加入这里，否则重启后不在hash环上
+         */
+        private List<RedisConfig> nodes;
+
+        /**
+         * 每个节点的虚拟节点数量
+         */
+        private int virtualNodes = 160;
+    }
+
+    @Data
+    public static class Replica {
+
+        /**
+         * 从节点（host:port，IPv6 为 [host]:port），密码、库和主节点相同
+         */
+        private List<String> nodes;
+
+        /**
+         * 允许的最大延迟（毫秒），超过时从主节点读取
+         */
+        private long maxStaleness = 1000;
+
+        /**
+         * 延迟检查间隔（毫秒）
+         */
+        private long checkPeriod = 200;
+
+        /**
+         * @return 是否配置了从节点
+         */
+        public boolean isEnabled() {
+            return nodes != null && !nodes.isEmpty();
+        }
+    }
+
+    @Data
+    public static class Cluster {
+
+        /**
+         * 集群节点（host:port），只需要部分节点，其他节点从拓扑中发现
+         */
+        private List<String> nodes;
+
+        /**
+         * 最大重定向次数（MOVED/ASK）
+         */
+        private Integer maxRedirects;
+
+        /**
+         * 拓扑定时刷新间隔（毫秒），0 为不定时刷新
+         */
+        private long refreshPeriod = 30000;
+
+        /**
+         * 收到 MOVED/ASK、连接断开等事件时是否立即刷新拓扑
+         */
+        private boolean adaptiveRefresh = true;
+
+        /**
+         * @return 是否使用集群模式
+         */
+        public boolean isEnabled() {
+            return nodes != null && !nodes.isEmpty();
+        }
+    }
+
+    @Data
+    public static class Pipelining {
+
+        /**
+         * 是否合并 flush
+         */
+        private boolean enabled;
+
+        /**
+         * 时间窗口（微秒），0 为只合并事件循环中已经排队的命令
+         */
+        private long window = 0;
+
+        /**
+         * 每次写出的最大命令数量
+         */
+        private int maxBatch = 128;
+    }
+
+    @Data
+    public static class Pool {
+
+        /**
+         * 是否开启连接池（独立连接时生效）
+         */
+        private boolean enabled;
+
+        /**
+         * 最大连接数
+         */
+        private int maxActive = 8;
+
+        /**
+         * 最大空闲连接数
+         */
+        private int maxIdle = 8;
+
+        /**
+         * 最小空闲连接数
+         */
+        private int minIdle = 0;
+
+        /**
+         * 获取连接的最大等待时间（毫秒），-1 为一直等待
+         */
+        private long maxWait = -1;
+    }
+
+    @Data
+    public static class Compression {
+
+        /**
+         * 是否压缩
+         */
+        private boolean enabled;
+
+        /**
+         * 压缩阈值（字节），序列化后超过阈值才压缩
+         */
+        private int threshold = 1024;
+
+        /**
+         * 预置字典（资源路径，如 classpath:redis/dictionary.bin），为空时使用 LZ4
+         */
+        private String dictionary;
+    }
+
 }
@@ -0,0 +1,40 @@
+package com.uetty.rule.config.redis;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.codec.RedisCodec;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionProvider;
+
+/**
+ * 规则redis连接工厂，暴露工厂内部的 lettuce 客户端
+ * <p>
+ * 脚本批量执行在同一个客户端（同一套客户端资源、客户端选项）上建立独立连接，不再单独创建客户端
+ */
+public class RuleLettuceConnectionFactory extends LettuceConnectionFactory {
+
+    private volatile AbstractRedisClient nativeClient;
+
+    public RuleLettuceConnectionFactory(RedisStandaloneConfiguration standaloneConfig, LettuceClientConfiguration clientConfig) {
+        super(standaloneConfig, clientConfig);
+    }
+
+    public RuleLettuceConnectionFactory(RedisClusterConfiguration clusterConfiguration, LettuceClientConfiguration clientConfig) {
+        super(clusterConfiguration, clientConfig);
+    }
+
+    @Override
+    protected LettuceConnectionProvider doCreateConnectionProvider(AbstractRedisClient client, RedisCodec<?, ?> codec) {
+        this.nativeClient = client;
+        return super.doCreateConnectionProvider(client, codec);
+    }
+
+    /**
+     * @return 工厂创建的客户端（单机为 RedisClient，集群为 RedisClusterClient），afterPropertiesSet 之前为空
+     */
+    public AbstractRedisClient getNativeClient() {
+        return nativeClient;
+    }
+}
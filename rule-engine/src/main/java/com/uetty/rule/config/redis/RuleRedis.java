@@ -1,19 +1,60 @@
 package com.uetty.rule.config.redis;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.uetty.rule.config.redis.lock.LockMetrics;
+import com.uetty.rule.config.redis.operations.ReactiveRedLockOperations;
+import com.uetty.rule.config.redis.operations.impl.ReactiveLockOperationsImpl;
+import com.uetty.rule.config.redis.operations.impl.ReactiveRedLockOperationsImpl;
+import com.uetty.rule.config.redis.pipeline.FlushCoalescingHandler;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.serializer.ValueCompressor;
+import com.uetty.rule.config.redis.shard.RedisTemplateRouter;
+import com.uetty.rule.config.redis.shard.ShardGroup;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
 import com.uetty.rule.config.redis.template.RedisTemplateRule;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.event.connection.ConnectionActivatedEvent;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisClusterConfiguration;
-import org.springframework.data.redis.connection.RedisNode;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * 规则Redis
  */
+@Slf4j
 @Configuration
 public class RuleRedis {
 
@@ -23,38 +64,286 @@ public class RuleRedis {
         return new RedisConfig();
     }
 
+    /**
+     * @return lettuce 客户端资源（事件循环、事件总线），所有规则redis连接共用
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources ruleClientResources(RedisConfig ruleRedisConfig) {
+        DefaultClientResources.Builder builder = DefaultClientResources.builder();
+        if (ruleRedisConfig.getIoThreadPoolSize() != null) {
+            builder.ioThreadPoolSize(ruleRedisConfig.getIoThreadPoolSize());
+        }
+        if (ruleRedisConfig.getComputationThreadPoolSize() != null) {
+            builder.computationThreadPoolSize(ruleRedisConfig.getComputationThreadPoolSize());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param ruleRedisConfig redis 配置
+     * @param clientResources 共用的客户端资源
+     * @return 开启合并 flush 时为只给当前 redisTemplate 使用的客户端资源（共用事件循环和事件总线，只增加合并 flush），
+     * 否则为共用的客户端资源
+     */
+    private ClientResources pipeliningClientResources(RedisConfig ruleRedisConfig, ClientResources clientResources) {
+        RedisConfig.Pipelining pipelining = ruleRedisConfig.getPipelining();
+        if (pipelining == null || !pipelining.isEnabled()) {
+            return clientResources;
+        }
+        return clientResources.mutate()
+                .nettyCustomizer(FlushCoalescingHandler.customizer(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(pipelining.getWindow())),
+                        pipelining.getMaxBatch()))
+                .build();
+    }
+
+    /**
+     * @return 锁的监控指标（注册到 actuator 的 MeterRegistry）
+     */
+    @Bean
+    public LockMetrics ruleLockMetrics(MeterRegistry meterRegistry) {
+        return new LockMetrics(meterRegistry);
+    }
+
+    /**
+     * redisTemplateRule 为 @RedisKey.redisTemplate 的默认值
+     */
+    @Bean(name = {"ruleRedisTemplate", "redisTemplateRule"})
+    public RedisTemplateRule ruleRedisTemplate(RedisConfig ruleRedisConfig, ClientResources ruleClientResources, ScriptConfig scriptConfig,
+                                               LockMetrics ruleLockMetrics) throws IOException {
+        //合并 flush 只安装在当前 redisTemplate 的连接上（脚本批量执行使用同一个客户端，每批只 flush 一次），从节点、分片、多节点锁使用共用的客户端资源
+        ClientResources templateResources = pipeliningClientResources(ruleRedisConfig, ruleClientResources);
+        ReactiveRedisConnectionFactory connectionFactory = ruleRedisConfig.getCluster().isEnabled()
+                ? ruleClusterConnectionFactory(ruleRedisConfig, templateResources)
+                : ruleConnectionFactory(ruleRedisConfig, templateResources);
+        RedisTemplateRule template = new RedisTemplateRule(connectionFactory,
+                ruleRedisConfig.getSerializer(), valueCompressor(ruleRedisConfig.getCompression()));
+        template.setLockMetrics(ruleLockMetrics);
+        RedisConfig.Replica replica = ruleRedisConfig.getReplica();
+        if (replica.isEnabled()) {
+            if (ruleRedisConfig.getCluster().isEnabled()) {
+                log.warn("集群模式不支持配置从节点，从节点配置不生效");
+            } else {
+                List<ReactiveRedisConnectionFactory> replicaFactories = Lists.newArrayList();
+                replica.getNodes().forEach(node -> {
+                    String[] hostAndPort = hostAndPort(node);
+                    replicaFactories.add(ruleConnectionFactory(ruleRedisConfig, ruleClientResources,
+                            hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+                });
+                template.setReplicas(replicaFactories, Duration.ofMillis(replica.getMaxStaleness()), Duration.ofMillis(replica.getCheckPeriod()));
+            }
+        }
+        //提前建立批量执行脚本的连接（异步），不在第一次调用时创建
+        template.opsForScriptBatch();
+        //启动和重新连接时预加载lua脚本（主节点和从节点），之后通过 SHA1 调用
+        ruleClientResources.eventBus().get()
+                .filter(ConnectionActivatedEvent.class::isInstance)
+                .flatMap(event -> preload(template))
+                .subscribe();
+        preload(template).subscribe();
+        return template;
+    }
+
+    /**
+     * @param node host:port，按最后一个冒号分割（IPv6 地址可以写成 [::1]:6379）
+     * @return 地址、端口
+     */
+    private static String[] hostAndPort(String node) {
+        int index = node.lastIndexOf(':');
+        Assert.isTrue(index > 0 && index < node.length() - 1, "节点格式应为 host:port: " + node);
+        String host = node.substring(0, index);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new String[]{host, node.substring(index + 1)};
+    }
+
+    private Mono<Void> preload(ClassReactiveRedisTemplate<?, ?> template) {
+        List<ReactiveRedisTemplate<?, ?>> templates = Lists.newArrayList();
+        templates.add(template);
+        templates.addAll(template.getReplicas());
+        return Flux.fromIterable(templates)
+                .flatMap(each -> ScriptConfig.preload(each).onErrorResume(e -> Mono.empty()))
+                .then();
+    }
+
+    /**
+     * @return 按 @RedisKey.redisTemplate 选择 redisTemplate（分片组按主键一致性hash选择分片）
+     */
     @Bean
-    public RedisTemplateRule ruleRedisTemplate(RedisConfig ruleRedisConfig) {
-        return new RedisTemplateRule(ruleConnectionFactory(ruleRedisConfig));
+    public RedisTemplateRouter ruleRedisTemplateRouter(RedisConfig ruleRedisConfig, ClientResources ruleClientResources,
+                                                       LockMetrics ruleLockMetrics, BeanFactory beanFactory) throws IOException {
+        ValueCompressor compressor = valueCompressor(ruleRedisConfig.getCompression());
+        Function<RedisConfig, ClassReactiveRedisTemplate<?, ?>> shardFactory = node -> {
+            RedisTemplateRule<?, ?> shard = new RedisTemplateRule<>(ruleConnectionFactory(nodeConfig(ruleRedisConfig, node), ruleClientResources),
+                    ruleRedisConfig.getSerializer(), compressor);
+            shard.setLockMetrics(ruleLockMetrics);
+            shard.opsForScriptBatch();
+            preload(shard).subscribe();
+            return shard;
+        };
+        Map<String, ShardGroup> shardGroups = Maps.newHashMap();
+        if (ruleRedisConfig.getShards() != null) {
+            ruleRedisConfig.getShards().forEach((name, shard) -> {
+                Assert.notEmpty(shard.getNodes(), "分片组没有节点: " + name);
+                Map<String, ClassReactiveRedisTemplate<?, ?>> shards = Maps.newLinkedHashMap();
+                shard.getNodes().forEach(node -> shards.put(RedisTemplateRouter.nodeId(node), shardFactory.apply(node)));
+                shardGroups.put(name, new ShardGroup(name, shards, shard.getVirtualNodes()));
+            });
+        }
+        return new RedisTemplateRouter(beanFactory, shardGroups, shardFactory);
+    }
+
+    /**
+     * 独立节点（分片、多节点锁）的连接配置：超时、socket、连接池等设置继承主配置，节点中配置了超时时覆盖主配置
+     *
+     * @param parent 主配置
+     * @param node   独立节点
+     * @return 节点使用的连接配置
+     */
+    private static RedisConfig nodeConfig(RedisConfig parent, RedisConfig node) {
+        RedisConfig config = new RedisConfig();
+        BeanUtils.copyProperties(parent, config, "host", "port", "dbIndex", "password", "redLockNodes", "cluster", "replica", "shards");
+        config.setHost(node.getHost());
+        config.setPort(node.getPort());
+        config.setDbIndex(node.getDbIndex());
+        config.setPassword(node.getPassword() != null ? node.getPassword() : parent.getPassword());
+        if (node.getTimeout() != null) {
+            config.setTimeout(node.getTimeout());
+        }
+        if (node.getConnectTimeout() != null) {
+            config.setConnectTimeout(node.getConnectTimeout());
+        }
+        return config;
+    }
+
+    /**
+     * @param compression 压缩配置
+     * @return 值压缩，没有开启时为空
+     */
+    private ValueCompressor valueCompressor(RedisConfig.Compression compression) throws IOException {
+        if (compression == null || !compression.isEnabled()) {
+            return null;
+        }
+        if (!StringUtils.hasText(compression.getDictionary())) {
+            return new ValueCompressor(compression.getThreshold());
+        }
+        try (InputStream in = new DefaultResourceLoader().getResource(compression.getDictionary()).getInputStream()) {
+            return new ValueCompressor(compression.getThreshold(), StreamUtils.copyToByteArray(in));
+        }
+    }
+
+    /**
+     * @param ruleRedisConfig     redis 配置
+     * @param ruleClientResources 客户端资源
+     * @return 多节点锁，配置了 redLockNodes 时才启用
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.redis.rule", name = "red-lock-nodes[0].host")
+    public ReactiveRedLockOperations ruleRedLockOperations(RedisConfig ruleRedisConfig, ClientResources ruleClientResources) {
+        List<ReactiveRedisConnectionFactory> factories = Lists.newArrayList();
+        ruleRedisConfig.getRedLockNodes().forEach(node -> factories.add(ruleConnectionFactory(nodeConfig(ruleRedisConfig, node), ruleClientResources)));
+        return new ReactiveRedLockOperationsImpl(factories, ReactiveLockOperationsImpl.NODE_ID);
     }
 
     /**
      * @param ruleRedisConfig redis 配置
+     * @param clientResources 客户端资源
      * @return 集群配置
      */
-    private ReactiveRedisConnectionFactory ruleClusterConnectionFactory(RedisConfig ruleRedisConfig) {
-        RedisClusterConfiguration redisClusterConfiguration = new RedisClusterConfiguration();
+    private ReactiveRedisConnectionFactory ruleClusterConnectionFactory(RedisConfig ruleRedisConfig, ClientResources clientResources) {
+        RedisConfig.Cluster cluster = ruleRedisConfig.getCluster();
+        RedisClusterConfiguration redisClusterConfiguration = new RedisClusterConfiguration(cluster.getNodes());
         redisClusterConfiguration.setPassword(ruleRedisConfig.getPassword());
-        RedisNode redisNode = new RedisNode(ruleRedisConfig.getHost(), ruleRedisConfig.getPort());
-        redisClusterConfiguration.setClusterNodes(Lists.newArrayList(redisNode));
-        LettuceConnectionFactory factory = new LettuceConnectionFactory(redisClusterConfiguration);
+        if (cluster.getMaxRedirects() != null) {
+            redisClusterConfiguration.setMaxRedirects(cluster.getMaxRedirects());
+        }
+        //定时刷新 + MOVED/ASK、断开重连时立即刷新，节点迁移/故障转移后自动路由到新节点
+        ClusterTopologyRefreshOptions.Builder refresh = ClusterTopologyRefreshOptions.builder();
+        if (cluster.getRefreshPeriod() > 0) {
+            refresh.enablePeriodicRefresh(Duration.ofMillis(cluster.getRefreshPeriod()));
+        }
+        if (cluster.isAdaptiveRefresh()) {
+            refresh.enableAllAdaptiveRefreshTriggers();
+        }
+        ClientOptions clientOptions = ClusterClientOptions.builder()
+                .socketOptions(socketOptions(ruleRedisConfig))
+                .topologyRefreshOptions(refresh.build())
+                .build();
+        LettuceConnectionFactory factory = new RuleLettuceConnectionFactory(redisClusterConfiguration,
+                clientConfiguration(ruleRedisConfig, clientResources, clientOptions));
+        factory.setShareNativeConnection(ruleRedisConfig.isShareNativeConnection());
         factory.afterPropertiesSet();
         return factory;
     }
 
     /**
+     * @param clientResources 客户端资源
      * @return 单机配置
      */
-    private ReactiveRedisConnectionFactory ruleConnectionFactory(RedisConfig ruleRedisConfig) {
+    private ReactiveRedisConnectionFactory ruleConnectionFactory(RedisConfig ruleRedisConfig, ClientResources clientResources) {
+        return ruleConnectionFactory(ruleRedisConfig, clientResources, ruleRedisConfig.getHost(), ruleRedisConfig.getPort());
+    }
+
+    /**
+     * @param host 节点地址（从节点使用从节点地址，其他配置和主节点相同）
+     * @param port 节点端口
+     * @return 单机配置
+     */
+    private ReactiveRedisConnectionFactory ruleConnectionFactory(RedisConfig ruleRedisConfig, ClientResources clientResources, String host, Integer port) {
         RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration();
-        configuration.setDatabase(ruleRedisConfig.getDbIndex());
-        configuration.setHostName(ruleRedisConfig.getHost());
-        configuration.setPort(ruleRedisConfig.getPort());
+        if (ruleRedisConfig.getDbIndex() != null) {
+            configuration.setDatabase(ruleRedisConfig.getDbIndex());
+        }
+        configuration.setHostName(host);
+        configuration.setPort(port);
         configuration.setPassword(ruleRedisConfig.getPassword());
-        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration);
+        LettuceConnectionFactory factory = new RuleLettuceConnectionFactory(configuration, clientConfiguration(ruleRedisConfig, clientResources,
+                ClientOptions.builder().socketOptions(socketOptions(ruleRedisConfig)).build()));
+        factory.setShareNativeConnection(ruleRedisConfig.isShareNativeConnection());
         factory.afterPropertiesSet();
         return factory;
     }
 
+    /**
+     * @param clientResources 客户端资源（为空时不设置）
+     * @param clientOptions   客户端选项（单机/集群）
+     * @return 客户端配置（超时、连接池）
+     */
+    private LettuceClientConfiguration clientConfiguration(RedisConfig ruleRedisConfig, ClientResources clientResources, ClientOptions clientOptions) {
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder builder;
+        RedisConfig.Pool pool = ruleRedisConfig.getPool();
+        if (pool != null && pool.isEnabled()) {
+            GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+            poolConfig.setMaxTotal(pool.getMaxActive());
+            poolConfig.setMaxIdle(pool.getMaxIdle());
+            poolConfig.setMinIdle(pool.getMinIdle());
+            poolConfig.setMaxWaitMillis(pool.getMaxWait());
+            builder = LettucePoolingClientConfiguration.builder().poolConfig(poolConfig);
+        } else {
+            builder = LettuceClientConfiguration.builder();
+        }
+        if (clientResources != null) {
+            builder.clientResources(clientResources);
+        }
+        if (ruleRedisConfig.getTimeout() != null) {
+            builder.commandTimeout(Duration.ofMillis(ruleRedisConfig.getTimeout()));
+        }
+        builder.clientOptions(clientOptions);
+        return builder.build();
+    }
+
+    /**
+     * @return TCP 选项
+     */
+    private SocketOptions socketOptions(RedisConfig ruleRedisConfig) {
+        SocketOptions.Builder socketOptions = SocketOptions.builder()
+                .keepAlive(ruleRedisConfig.isKeepAlive())
+                .tcpNoDelay(ruleRedisConfig.isTcpNoDelay());
+        if (ruleRedisConfig.getConnectTimeout() != null) {
+            socketOptions.connectTimeout(Duration.ofMillis(ruleRedisConfig.getConnectTimeout()));
+        }
+        return socketOptions.build();
+    }
+
 
 }
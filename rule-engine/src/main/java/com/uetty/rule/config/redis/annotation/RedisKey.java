@@ -1,5 +1,7 @@
 package com.uetty.rule.config.redis.annotation;
 
+import com.uetty.rule.config.redis.serializer.SerializerFormat;
+
 import java.lang.annotation.*;
 
 /**
@@ -11,13 +13,22 @@ import java.lang.annotation.*;
 public @interface RedisKey {
 
     /**
-     * @return 使用的redisTemplate
+     * 通过 RedisTemplateRouter 选择，为分片组名称（spring.redis.rule.shards）时按主键分布到各个分片
+     *
+     * @return 使用的redisTemplate（bean 名称或分片组名称）
      */
     String redisTemplate() default "redisTemplateRule";
 
     /**
+     * 集群模式下需要和排行榜等key在同一个脚本中使用时，使用相同的 hash tag，如 {user}:detail 和 {user}:rank
+     *
      * @return redis存储key
      */
     String value();
 
+    /**
+     * @return 序列化格式，默认使用 redisTemplate 的格式
+     */
+    SerializerFormat format() default SerializerFormat.DEFAULT;
+
 }
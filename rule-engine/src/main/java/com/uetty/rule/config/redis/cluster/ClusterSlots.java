@@ -0,0 +1,106 @@
+package com.uetty.rule.config.redis.cluster;
+
+import com.google.common.collect.Lists;
+import io.lettuce.core.cluster.SlotHash;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * redis 集群槽位
+ * <p>
+ * 集群模式下一次脚本调用的所有key必须在同一个槽位。key中包含 {tag} 时只用 tag 计算槽位，
+ * 需要在同一个脚本中使用的key（如排行榜和对象hash、锁和锁的channel）使用相同的 tag；
+ * 不要求在同一个槽位的多key操作按槽位分组后分别执行
+ */
+public final class ClusterSlots {
+
+    private ClusterSlots() {
+    }
+
+    /**
+     * @return 是否为集群连接
+     */
+    public static boolean isCluster(ReactiveRedisTemplate<?, ?> template) {
+        ReactiveRedisConnectionFactory connectionFactory = template.getConnectionFactory();
+        return connectionFactory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) connectionFactory).isClusterAware();
+    }
+
+    /**
+     * @return key 所在的槽位
+     */
+    public static int slot(String key) {
+        return SlotHash.getSlot(key);
+    }
+
+    /**
+     * @return 序列化后的 key 所在的槽位
+     */
+    public static int slot(ByteBuffer key) {
+        return SlotHash.getSlot(key.duplicate());
+    }
+
+    /**
+     * @return key 的 hash tag，没有 tag 时为整个key
+     */
+    public static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * 按槽位分组，槽位从小到大排列（多个节点对同一组key的处理顺序一致）
+     *
+     * @param items  元素
+     * @param keyOf  元素的key
+     * @return 槽位 - 元素
+     */
+    public static <T> Map<Integer, List<T>> groupBySlot(Collection<T> items, Function<? super T, ByteBuffer> keyOf) {
+        Map<Integer, List<T>> groups = new TreeMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(slot(keyOf.apply(item)), slot -> Lists.newArrayList()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * 集群模式下检查脚本的key在同一个槽位
+     *
+     * @param template redisTemplate
+     * @param keys     脚本使用的key
+     */
+    public static void checkSameSlot(ReactiveRedisTemplate<?, ?> template, ByteBuffer... keys) {
+        if (keys.length < 2 || !isCluster(template)) {
+            return;
+        }
+        int slot = slot(keys[0]);
+        for (int i = 1; i < keys.length; i++) {
+            if (slot(keys[i]) != slot) {
+                throw new IllegalArgumentException("集群模式下脚本的key必须在同一个槽位，请使用相同的 {tag}（如 {user}:detail 和 {user}:rank）: "
+                        + toString(keys));
+            }
+        }
+    }
+
+    private static String toString(ByteBuffer... keys) {
+        List<String> names = Lists.newArrayListWithCapacity(keys.length);
+        for (ByteBuffer key : keys) {
+            names.add(StandardCharsets.UTF_8.decode(key.duplicate()).toString());
+        }
+        return names.toString();
+    }
+}
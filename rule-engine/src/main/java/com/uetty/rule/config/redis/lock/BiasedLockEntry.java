@@ -0,0 +1,117 @@
+package com.uetty.rule.config.redis.lock;
+
+import io.netty.util.Timeout;
+import reactor.core.Disposable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 偏向锁租约
+ * <p>
+ * 节点获取redis锁后，本地释放时不释放redis锁，本节点再次获取时不需要访问redis，
+ * 直到其他节点通过释放请求channel要求释放，或者空闲超时才释放redis锁；只有本地持有锁的线程能在本地释放
+ */
+public class BiasedLockEntry {
+
+    private static final long IDLE = 0;
+
+    private static final long RELEASED = -1;
+
+    /**
+     * 租约状态：空闲、已放弃，或本地持有锁的线程id
+     */
+    private final AtomicLong holder;
+
+    /**
+     * 其他节点请求释放
+     */
+    private volatile boolean revokeRequested;
+
+    /**
+     * 最后一次本地释放的时间
+     */
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    /**
+     * 锁channel的订阅
+     */
+    private volatile Disposable subscription;
+
+    /**
+     * 空闲超时任务
+     */
+    private volatile Timeout idleTask;
+
+    /**
+     * @param threadId 获取租约的线程id（租约建立时该线程在本地持有锁）
+     */
+    public BiasedLockEntry(long threadId) {
+        this.holder = new AtomicLong(threadId);
+    }
+
+    /**
+     * @param threadId 线程id
+     * @return 本地获取锁（不访问redis）
+     */
+    public boolean tryAcquireLocal(long threadId) {
+        return holder.compareAndSet(IDLE, threadId);
+    }
+
+    /**
+     * 本地释放锁，保留redis租约
+     *
+     * @param threadId 线程id
+     * @return 是否释放，不是该线程持有时返回false
+     */
+    public boolean releaseLocal(long threadId) {
+        if (!holder.compareAndSet(threadId, IDLE)) {
+            return false;
+        }
+        lastUsed = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * @return 放弃租约（只有空闲状态才能放弃），返回true代表需要释放redis锁
+     */
+    public boolean tryRevoke() {
+        if (holder.compareAndSet(IDLE, RELEASED)) {
+            if (idleTask != null) {
+                idleTask.cancel();
+            }
+            if (subscription != null) {
+                subscription.dispose();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isReleased() {
+        return holder.get() == RELEASED;
+    }
+
+    public boolean isRevokeRequested() {
+        return revokeRequested;
+    }
+
+    public void requestRevoke() {
+        this.revokeRequested = true;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setSubscription(Disposable subscription) {
+        this.subscription = subscription;
+    }
+
+    public void setIdleTask(Timeout idleTask) {
+        Timeout old = this.idleTask;
+        this.idleTask = idleTask;
+        if (old != null) {
+            old.cancel();
+        }
+    }
+}
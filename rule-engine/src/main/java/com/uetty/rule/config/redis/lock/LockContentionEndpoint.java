@@ -0,0 +1,29 @@
+package com.uetty.rule.config.redis.lock;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 竞争最多的锁（/actuator/lockcontention?size=N）
+ */
+@Component
+@Endpoint(id = "lockcontention")
+@RequiredArgsConstructor
+public class LockContentionEndpoint {
+
+    private static final int DEFAULT_SIZE = 20;
+
+    private final LockMetrics lockMetrics;
+
+    @ReadOperation
+    public Map<String, Long> topContended(@Nullable Integer size) {
+        return lockMetrics.topContended(size == null ? DEFAULT_SIZE : size);
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.uetty.rule.config.redis.lock;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 锁监控指标（按锁名模式统计），通过 actuator metrics 输出
+ * <p>
+ * 锁名中的数字、UUID段替换为 *，例如 user:123:rule 统计为 user:*:rule
+ */
+public class LockMetrics {
+
+    /**
+     * 不输出的指标（没有设置指标的 redisTemplate 使用）
+     */
+    public static final LockMetrics NONE = new LockMetrics(new CompositeMeterRegistry());
+
+    private static final Pattern VARIABLE_SEGMENT = Pattern.compile("[0-9]+|[0-9a-fA-F]{8}-[0-9a-fA-F-]{27}");
+
+    /**
+     * 竞争统计最多保留的key数量，超过后淘汰最久没有竞争的key
+     */
+    private static final int MAX_CONTENDED_KEYS = 10000;
+
+    private final MeterRegistry registry;
+
+    /**
+     * 获取到锁的时间（key:持有者）
+     */
+    private final ConcurrentMap<String, Long> acquiredTime = Maps.newConcurrentMap();
+
+    /**
+     * 每个模式的等待数量
+     */
+    private final ConcurrentMap<String, AtomicInteger> waiters = Maps.newConcurrentMap();
+
+    /**
+     * 每个key的竞争次数
+     */
+    private final Cache<String, LongAdder> contendedKeys = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CONTENDED_KEYS)
+            .build();
+
+    /**
+     * @param registry 指标注册（spring boot 的 MeterRegistry，带有 actuator 的公共 tag）
+     */
+    public LockMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return 锁名模式
+     */
+    public static String pattern(String key) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : key.split(":", -1)) {
+            if (sb.length() > 0) {
+                sb.append(':');
+            }
+            sb.append(VARIABLE_SEGMENT.matcher(segment).matches() ? "*" : segment);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一次获取锁的结果（一次获取只记录一次，等待后重试不再记录）
+     *
+     * @param key      锁名
+     * @param holder   持有者
+     * @param acquired 是否直接获取成功（false代表被其他持有者占用）
+     */
+    public void attempt(String key, String holder, boolean acquired) {
+        String pattern = pattern(key);
+        Counter.builder("redis.lock.acquire")
+                .tag("pattern", pattern)
+                .tag("result", acquired ? "uncontended" : "contended")
+                .register(registry)
+                .increment();
+        if (acquired) {
+            acquiredTime.putIfAbsent(key + ":" + holder, System.nanoTime());
+        } else {
+            contendedKeys.asMap().computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 等待后获取到锁，开始记录持有时间
+     */
+    public void acquired(String key, String holder) {
+        acquiredTime.putIfAbsent(key + ":" + holder, System.nanoTime());
+    }
+
+    /**
+     * 锁被完全释放，记录持有时间
+     */
+    public void released(String key, String holder) {
+        Long start = acquiredTime.remove(key + ":" + holder);
+        if (start != null) {
+            Timer.builder("redis.lock.hold")
+                    .tag("pattern", pattern(key))
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 记录等待获取锁的时间
+     */
+    public void waited(String key, long startNanos) {
+        Timer.builder("redis.lock.wait")
+                .tag("pattern", pattern(key))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 续期时发现锁已经不属于当前持有者（租约过期）
+     */
+    public void leaseExpired(String key, String holder) {
+        acquiredTime.remove(key + ":" + holder);
+        Counter.builder("redis.lock.lease.expired")
+                .tag("pattern", pattern(key))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 续期失败（redis异常）
+     */
+    public void renewalFailed(String key) {
+        Counter.builder("redis.lock.renewal.failed")
+                .tag("pattern", pattern(key))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 开始等待锁
+     */
+    public void waiterAdded(String key) {
+        waiterGauge(pattern(key)).incrementAndGet();
+    }
+
+    public void waiterRemoved(String key) {
+        waiterGauge(pattern(key)).decrementAndGet();
+    }
+
+    private AtomicInteger waiterGauge(String pattern) {
+        return waiters.computeIfAbsent(pattern, p -> registry.gauge("redis.lock.waiters",
+                Tags.of("pattern", p), new AtomicInteger()));
+    }
+
+    /**
+     * @param size 数量
+     * @return 竞争最多的key
+     */
+    public Map<String, Long> topContended(int size) {
+        Map<String, Long> top = new LinkedHashMap<>();
+        contendedKeys.asMap().entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .limit(size)
+                .forEach(entry -> top.put(entry.getKey(), entry.getValue().sum()));
+        return top;
+    }
+
+}
@@ -8,6 +8,11 @@ public class LockPubSub {
 
     public static final Long unlockMessage = 0L;
 
+    /**
+     * 其他节点请求释放偏向锁
+     */
+    public static final Long revokeMessage = 1L;
+
     protected LockEntry createEntry(LockEntry lockEntry) {
         return new LockEntry(lockEntry);
     }
@@ -0,0 +1,27 @@
+package com.uetty.rule.config.redis.operations;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 排名结果
+ */
+@Data
+@AllArgsConstructor
+public class RankedValue<V> {
+
+    /**
+     * 对象
+     */
+    private V value;
+
+    /**
+     * 分数
+     */
+    private double score;
+
+    /**
+     * 排名（从0开始，倒序时分数最高为0）
+     */
+    private long rank;
+}
@@ -0,0 +1,25 @@
+package com.uetty.rule.config.redis.operations;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * redis 循环屏障（CyclicBarrier）
+ */
+public interface ReactiveBarrierOperations {
+
+    /**
+     * 到达屏障并等待其他参与者，最后一个到达时所有等待者被唤醒，屏障进入下一代可重复使用
+     *
+     * @param key     key名
+     * @param parties 参与数量
+     * @return 所有参与者到达时完成
+     */
+    Mono<Void> await(String key, int parties);
+
+    /**
+     * @param key key名
+     * @return 当前代数（屏障被触发的次数）
+     */
+    Mono<Long> getGeneration(String key);
+
+}
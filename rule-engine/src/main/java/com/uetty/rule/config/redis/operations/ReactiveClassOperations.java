@@ -35,6 +35,25 @@ public interface ReactiveClassOperations<H, HK, HV> {
      */
     Mono<Boolean> putClass(H key, Collection<HV> values);
 
+    /**
+     * 带锁令牌写入，令牌按对象记录（主键:@fencingToken），任意一个对象的令牌比该对象已写入的令牌旧时全部拒绝写入（在redis端判断）
+     *
+     * @param key          redis key
+     * @param fencingToken 获取锁时返回的令牌
+     * @param values       对象信息
+     * @return true:写入成功  false:令牌过期，拒绝写入
+     */
+    Mono<Boolean> putClassFenced(H key, long fencingToken, Collection<HV> values);
+
+    /**
+     * @param fencingToken 获取锁时返回的令牌
+     * @param values       对象信息
+     * @return 带锁令牌写入
+     */
+    default Mono<Boolean> putClassFenced(long fencingToken, Collection<HV> values) {
+        return putClassFenced(null, fencingToken, values);
+    }
+
 
     /**
      * @param key     redis key
@@ -0,0 +1,37 @@
+package com.uetty.rule.config.redis.operations;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * redis 倒计数器（CountDownLatch）
+ */
+public interface ReactiveCountDownLatchOperations {
+
+    /**
+     * @param key   key名
+     * @param count 计数
+     * @return true:设置成功  false:计数已存在
+     */
+    Mono<Boolean> trySetCount(String key, long count);
+
+    /**
+     * @param key key名
+     * @return 计数减一，返回剩余计数（归零时通知所有等待者）
+     */
+    Mono<Long> countDown(String key);
+
+    /**
+     * @param key key名
+     * @return 当前计数
+     */
+    Mono<Long> getCount(String key);
+
+    /**
+     * 等待计数归零（通过订阅channel唤醒，不轮询）
+     *
+     * @param key key名
+     * @return 计数归零时完成
+     */
+    Mono<Void> await(String key);
+
+}
@@ -2,6 +2,8 @@ package com.uetty.rule.config.redis.operations;
 
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -36,4 +38,63 @@ public interface ReactiveLockOperations {
 
     boolean isLocked();
 
+    /**
+     * 尝试获取锁，获取成功时返回令牌（同一个key的令牌单调递增，重入时返回原令牌）
+     *
+     * @param key key名
+     * @return 令牌，没获取到锁时为空
+     */
+    Mono<Long> tryLockWithFencingToken(String key);
+
+    /**
+     * 获取当前线程持有的锁的令牌（lock、tryLock、lockAll、tryLockBiased 获取锁时同样生成令牌）
+     *
+     * @param key key名
+     * @return 令牌，当前线程没有持有锁时为空
+     */
+    Mono<Long> getFencingToken(String key);
+
+    /**
+     * 偏向模式获取锁：本节点已持有租约时直接在本地获取，不访问redis
+     * <p>
+     * 同一个key不能同时使用偏向模式和普通模式
+     *
+     * @param key key名
+     * @return true:获取成功  false:其他节点持有锁（会通知对方释放租约），或本节点正在使用、正在释放租约
+     */
+    Mono<Boolean> tryLockBiased(String key);
+
+    /**
+     * 偏向模式释放锁：只在本地释放，保留redis租约，
+     * 其他节点请求或空闲超时后才释放redis锁
+     *
+     * @param key key名
+     * @return 释放锁
+     */
+    Mono<Void> unlockBiased(String key);
+
+    /**
+     * 一次性获取多个锁（一次脚本调用，全部获取或全部不获取）
+     *
+     * @param keys key名集合
+     * @return true:全部获取成功  false:存在被其他线程占用的key
+     */
+    Mono<Boolean> lockAll(Collection<String> keys);
+
+    /**
+     * 一次性获取多个锁，获取成功时返回每个锁的令牌
+     *
+     * @param keys key名集合
+     * @return key名 - 令牌，存在被其他线程占用的key时为空
+     */
+    Mono<Map<String, Long>> lockAllWithFencingTokens(Collection<String> keys);
+
+    /**
+     * 一次性释放多个锁，并向每个锁的channel发布释放消息
+     *
+     * @param keys key名集合
+     * @return 释放锁
+     */
+    Mono<Void> unlockAll(Collection<String> keys);
+
 }
@@ -1,8 +1,14 @@
 package com.uetty.rule.config.redis.operations;
 
+import org.springframework.data.redis.connection.RedisZSetCommands.Aggregate;
+import org.springframework.data.redis.connection.RedisZSetCommands.Weights;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Lua 脚本操作
@@ -18,4 +24,149 @@ public interface ReactiveLuaOperations<K, V> {
      */
     Mono<List<V>> getHashFromSortedSet(K sortedSetKey, K hashKey, long start, long end);
 
+    /**
+     * 按排名分页读取，每页一次脚本调用，按需（背压）读取下一页
+     *
+     * @param sortedSetKey 排序key
+     * @param hashKey      哈希key
+     * @param pageSize     每页数量
+     * @return 根据排序key获取id，去hash key查询结果
+     */
+    Flux<V> streamHashFromSortedSet(K sortedSetKey, K hashKey, int pageSize);
+
+    /**
+     * 按分数分页读取（分数从小到大），每页一次脚本调用，按需（背压）读取下一页
+     *
+     * @param sortedSetKey 排序key
+     * @param hashKey      哈希key
+     * @param min          最小分数
+     * @param max          最大分数
+     * @param pageSize     每页数量
+     * @return 根据排序key获取id，去hash key查询结果
+     */
+    Flux<V> streamHashFromSortedSetByScore(K sortedSetKey, K hashKey, double min, double max, int pageSize);
+
+    /**
+     * 按分数筛选排名，筛选、分页和查询对象在同一个脚本中完成
+     * <p>
+     * 排序key的成员为对象主键，对象按 {@link ReactiveClassOperations#putClass} 的格式存储
+     *
+     * @param sortedSetKey 排序key
+     * @param hashKey      对象哈希key（为空时取 @RedisKey）
+     * @param clazz        对象类型
+     * @param min          最小分数
+     * @param max          最大分数
+     * @param offset       偏移量
+     * @param count        数量
+     * @param reverse      true:分数从高到低 false:分数从低到高
+     * @return 对象、分数和排名
+     */
+    Mono<List<RankedValue<V>>> rangeByScoreWithRank(K sortedSetKey, K hashKey, Class<V> clazz, double min, double max,
+                                                    long offset, int count, boolean reverse);
+
+    /**
+     * @param sortedSetKey 排序key
+     * @param clazz        对象类型
+     * @param min          最小分数
+     * @param max          最大分数
+     * @param count        数量
+     * @return 分数在 [min, max] 中的前 count 名（分数从高到低）
+     */
+    default Mono<List<RankedValue<V>>> topByScore(K sortedSetKey, Class<V> clazz, double min, double max, int count) {
+        return rangeByScoreWithRank(sortedSetKey, null, clazz, min, max, 0, count, true);
+    }
+
+    /**
+     * 多个排序key求交集（ZINTERSTORE）到临时key后分页，合并、分页和查询对象在同一个脚本中完成
+     * <p>
+     * 临时key在 ttl 内复用，翻页时不重复合并（结果最多延迟 ttl）
+     *
+     * @param sortedSetKeys 排序key
+     * @param weights       权重（为空时都为1）
+     * @param aggregate     分数聚合方式
+     * @param hashKey       对象哈希key（为空时取 @RedisKey）
+     * @param clazz         对象类型
+     * @param offset        偏移量
+     * @param count         数量
+     * @param reverse       true:分数从高到低 false:分数从低到高
+     * @param ttl           临时key过期时间
+     * @return 对象、合并后的分数和排名
+     */
+    Mono<List<RankedValue<V>>> intersectWithRank(List<K> sortedSetKeys, Weights weights, Aggregate aggregate, K hashKey,
+                                                 Class<V> clazz, long offset, int count, boolean reverse, Duration ttl);
+
+    /**
+     * 多个排序key求并集（ZUNIONSTORE）到临时key后分页，合并、分页和查询对象在同一个脚本中完成
+     * <p>
+     * 临时key在 ttl 内复用，翻页时不重复合并（结果最多延迟 ttl）
+     *
+     * @param sortedSetKeys 排序key
+     * @param weights       权重（为空时都为1）
+     * @param aggregate     分数聚合方式
+     * @param hashKey       对象哈希key（为空时取 @RedisKey）
+     * @param clazz         对象类型
+     * @param offset        偏移量
+     * @param count         数量
+     * @param reverse       true:分数从高到低 false:分数从低到高
+     * @param ttl           临时key过期时间
+     * @return 对象、合并后的分数和排名
+     */
+    Mono<List<RankedValue<V>>> unionWithRank(List<K> sortedSetKeys, Weights weights, Aggregate aggregate, K hashKey,
+                                             Class<V> clazz, long offset, int count, boolean reverse, Duration ttl);
+
+    /**
+     * @param sortedSetKeys 排序key
+     * @param clazz         对象类型
+     * @param offset        偏移量
+     * @param count         数量
+     * @return 交集按分数和从高到低分页
+     */
+    default Mono<List<RankedValue<V>>> intersectWithRank(List<K> sortedSetKeys, Class<V> clazz, long offset, int count) {
+        return intersectWithRank(sortedSetKeys, null, Aggregate.SUM, null, clazz, offset, count, true, Duration.ofSeconds(10));
+    }
+
+    /**
+     * @param sortedSetKeys 排序key
+     * @param clazz         对象类型
+     * @param offset        偏移量
+     * @param count         数量
+     * @return 并集按分数和从高到低分页
+     */
+    default Mono<List<RankedValue<V>>> unionWithRank(List<K> sortedSetKeys, Class<V> clazz, long offset, int count) {
+        return unionWithRank(sortedSetKeys, null, Aggregate.SUM, null, clazz, offset, count, true, Duration.ofSeconds(10));
+    }
+
+    /**
+     * 记录事件，过期的桶在同一个脚本中删除
+     *
+     * @param counterKey 计数key
+     * @param window     滑动窗口（同一个计数key需要使用相同的精度）
+     * @param count      事件数量
+     * @return 记录后窗口内的事件数量
+     */
+    Mono<Long> recordEvent(K counterKey, SlidingWindow window, long count);
+
+    /**
+     * @param counterKey 计数key
+     * @param window     滑动窗口
+     * @return 记录一次事件，返回窗口内的事件数量
+     */
+    default Mono<Long> recordEvent(K counterKey, SlidingWindow window) {
+        return recordEvent(counterKey, window, 1);
+    }
+
+    /**
+     * @param counterKey 计数key
+     * @param window     滑动窗口（窗口可以小于记录时的窗口，精度需要相同）
+     * @return 窗口内的事件数量
+     */
+    Mono<Long> countEvents(K counterKey, SlidingWindow window);
+
+    /**
+     * @param counterKeys 计数key
+     * @param window      滑动窗口（窗口可以小于记录时的窗口，精度需要相同）
+     * @return 一次脚本调用查询多个计数key窗口内的事件数量
+     */
+    Mono<Map<K, Long>> countEvents(Collection<K> counterKeys, SlidingWindow window);
+
 }
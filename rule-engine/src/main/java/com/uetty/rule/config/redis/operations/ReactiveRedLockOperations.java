@@ -0,0 +1,48 @@
+package com.uetty.rule.config.redis.operations;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis 多节点锁（Redlock，多数节点获取成功即代表获取到锁）
+ */
+public interface ReactiveRedLockOperations {
+
+    /**
+     * 尝试在所有节点上获取锁
+     *
+     * @param key       key名
+     * @param leaseTime 超时时间
+     * @param unit      单位
+     * @return true:多数节点获取成功，并且在有效期内  false:获取失败（已获取的节点会被释放）
+     */
+    Mono<Boolean> tryLock(String key, long leaseTime, TimeUnit unit);
+
+    /**
+     * 尝试在所有节点上获取锁，并返回锁的剩余有效时间
+     * <p>
+     * 剩余有效时间 = 过期时间 - 获取耗时 - 时钟漂移，调用方应在这个时间内完成临界区操作
+     *
+     * @param key       key名
+     * @param leaseTime 超时时间
+     * @param unit      单位
+     * @return 剩余有效时间（毫秒），获取失败时为空（已获取的节点会被释放）
+     */
+    Mono<Long> tryLockWithValidity(String key, long leaseTime, TimeUnit unit);
+
+    /**
+     * @param key key名
+     * @return 尝试获取锁（默认超时时间）
+     */
+    Mono<Boolean> tryLock(String key);
+
+    /**
+     * 在所有节点上释放锁（尽力而为，单个节点失败不影响其他节点）
+     *
+     * @param key key名
+     * @return 释放锁
+     */
+    Mono<Void> unlock(String key);
+
+}
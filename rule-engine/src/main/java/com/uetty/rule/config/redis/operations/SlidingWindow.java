@@ -0,0 +1,71 @@
+package com.uetty.rule.config.redis.operations;
+
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+
+/**
+ * 滑动窗口
+ * <p>
+ * 窗口按精度分成多个桶，精度越小结果越准确，占用的桶越多
+ */
+@Getter
+public class SlidingWindow {
+
+    /**
+     * 窗口大小
+     */
+    private final Duration window;
+
+    /**
+     * 精度（每个桶的时间）
+     */
+    private final Duration precision;
+
+    /**
+     * 窗口桶数量
+     */
+    private final long bucketCount;
+
+    private SlidingWindow(Duration window, Duration precision) {
+        Assert.isTrue(window != null && window.toMillis() > 0, "window must be greater than 0!");
+        Assert.isTrue(precision != null && precision.toMillis() > 0, "precision must be greater than 0!");
+        Assert.isTrue(precision.compareTo(window) <= 0, "precision must not be greater than window!");
+        this.window = window;
+        this.precision = precision;
+        this.bucketCount = (window.toMillis() + precision.toMillis() - 1) / precision.toMillis();
+    }
+
+    /**
+     * @param window    窗口大小
+     * @param precision 精度
+     * @return 滑动窗口
+     */
+    public static SlidingWindow of(Duration window, Duration precision) {
+        return new SlidingWindow(window, precision);
+    }
+
+    /**
+     * @param window 窗口大小
+     * @return 滑动窗口（精度为窗口的1/60）
+     */
+    public static SlidingWindow of(Duration window) {
+        return new SlidingWindow(window, Duration.ofMillis(Math.max(window.toMillis() / 60, 1)));
+    }
+
+    /**
+     * @param timeMillis 时间
+     * @return 时间所在的桶
+     */
+    public long bucket(long timeMillis) {
+        return timeMillis / precision.toMillis();
+    }
+
+    /**
+     * @return 计数key过期时间（毫秒），多保留一个桶
+     */
+    public long ttlMillis() {
+        return (bucketCount + 1) * precision.toMillis();
+    }
+}
@@ -0,0 +1,75 @@
+package com.uetty.rule.config.redis.operations.impl;
+
+import com.uetty.cloud.utils.Convert;
+import com.uetty.rule.config.redis.operations.ReactiveBarrierOperations;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+
+/**
+ * redis 循环屏障
+ */
+@RequiredArgsConstructor
+public class ReactiveBarrierOperationsImpl implements ReactiveBarrierOperations {
+
+    private final @NonNull ClassReactiveRedisTemplate<?, ?> template;
+    private final @NonNull RedisSerializationContext<?, ?> serializationContext;
+
+    private ByteBuffer scriptBytes(String key) {
+        return serializationContext.getStringSerializationPair().getWriter().write(key);
+    }
+
+    @Override
+    public Mono<Void> await(String key, int parties) {
+        Assert.isTrue(parties > 0, "parties must be greater than 0!");
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.BARRIER_AWAIT, ReturnType.INTEGER, 3,
+                scriptBytes(getCountName(key)), scriptBytes(getGenerationName(key)),
+                scriptBytes(getChannelName(key)), scriptBytes(String.valueOf(parties)))
+                .next()
+                .flatMap(generation -> {
+                    //最后一个到达，直接继续
+                    if (generation < 0) {
+                        return Mono.empty();
+                    }
+                    return awaitGeneration(key, generation);
+                });
+    }
+
+    /**
+     * @return 等待代数大于 generation（订阅确认后（包括重新订阅）和每次收到消息时检查代数）
+     */
+    private Mono<Void> awaitGeneration(String key, long generation) {
+        return template.listenToChannelNotifications(getChannelName(key))
+                .concatMap(signal -> getGeneration(key).map(current -> current > generation))
+                .filter(Boolean::booleanValue)
+                .next()
+                .then();
+    }
+
+    @Override
+    public Mono<Long> getGeneration(String key) {
+        return template.createMono(connection -> connection.stringCommands().get(scriptBytes(getGenerationName(key))))
+                .map(value -> Convert.toLong(serializationContext.getStringSerializationPair().read(value)))
+                .defaultIfEmpty(0L);
+    }
+
+    private String getCountName(String key) {
+        return "redis_barrier_count:{" + key + "}";
+    }
+
+    private String getGenerationName(String key) {
+        return "redis_barrier_generation:{" + key + "}";
+    }
+
+    private String getChannelName(String key) {
+        return "redis_barrier_topic:{" + key + "}";
+    }
+
+}
@@ -2,9 +2,15 @@ package com.uetty.rule.config.redis.operations.impl;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.uetty.cloud.utils.Convert;
 import com.uetty.rule.config.redis.annotation.RedisKey;
 import com.uetty.rule.config.redis.annotation.RedisPrimaryKey;
 import com.uetty.rule.config.redis.operations.ReactiveClassOperations;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.serializer.ClassSerializer;
+import com.uetty.rule.config.redis.serializer.ClassSerializers;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
 import com.uetty.rule.utils.FunctionCollection;
 import com.uetty.rule.utils.LambdaUtils;
 import com.uetty.rule.utils.SerializableFunction;
@@ -14,12 +20,15 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.reactivestreams.Publisher;
 import org.springframework.data.redis.connection.ReactiveHashCommands;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.util.Assert;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.util.*;
@@ -38,6 +47,11 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
 
     private final static String CLASS = "@class";
 
+    /**
+     * 对象的写入令牌（属性名为 主键:@fencingToken），不是对象属性，读取时跳过
+     */
+    public final static String FENCING_TOKEN = "@fencingToken";
+
     private static String DIVIDE = ":";
 
     /**
@@ -60,6 +74,21 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
         return serializationContext.getHashValueSerializationPair().write(key);
     }
 
+    /**
+     * @param owner 对象类型，@RedisKey 指定了格式时按指定格式写入属性值
+     */
+    private ByteBuffer rawHashValue(Object value, Class<?> owner) {
+        ClassSerializer serializer = ClassSerializers.forClass(owner);
+        if (serializer == null) {
+            return rawHashValue(value);
+        }
+        try {
+            return ByteBuffer.wrap(ClassSerializers.write(serializer, value));
+        } catch (IOException e) {
+            throw new SerializationException("序列化失败: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * @return key 序列化
      */
@@ -67,6 +96,10 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
         return serializationContext.getKeySerializationPair().write(key);
     }
 
+    private ByteBuffer rawString(String value) {
+        return serializationContext.getStringSerializationPair().write(value);
+    }
+
     private HV readHashValue(ByteBuffer value) {
         return (HV) (value == null ? value : serializationContext.getHashValueSerializationPair().read(value));
     }
@@ -105,6 +138,14 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
         return template.createMono(connection -> function.apply(connection.hashCommands()));
     }
 
+    /**
+     * 写操作固定在主节点（从节点副本的写操作也发到主节点）
+     */
+    private <T> Mono<T> createWriteMono(Function<ReactiveHashCommands, Publisher<T>> function) {
+        Assert.notNull(function, "Function must not be null!");
+        return ClassReactiveRedisTemplate.primaryOf(template).createMono(connection -> function.apply(connection.hashCommands()));
+    }
+
     private <T> Flux<T> createFlux(Function<ReactiveHashCommands, Publisher<T>> function) {
         Assert.notNull(function, "Function must not be null!");
         return template.createFlux(connection -> function.apply(connection.hashCommands()));
@@ -127,6 +168,45 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
 
     @Override
     public Mono<Boolean> putClass(H key, Collection<HV> values) {
+        Map<String, Object> map = toHashMap(values);
+        Class<?> clazz = values.iterator().next().getClass();
+        return createWriteMono(connection -> Flux.fromIterable(() -> map.entrySet().iterator())
+                .collectMap(entry -> rawHashKey(entry.getKey()), entry -> rawHashValue(entry.getValue(), clazz))
+                .flatMap(serialized -> connection.hMSet(rawKey(getKey(key, clazz)), serialized)));
+    }
+
+    @Override
+    public Mono<Boolean> putClassFenced(H key, long fencingToken, Collection<HV> values) {
+        Map<String, Object> map = toHashMap(values);
+        Class<?> clazz = values.iterator().next().getClass();
+        Set<String> fences = Sets.newLinkedHashSet();
+        values.forEach(value -> fences.add(fencingTokenField(primaryKey(value))));
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList(rawKey(getKey(key, clazz)), rawString(String.valueOf(fencingToken)),
+                rawString(String.valueOf(fences.size())));
+        fences.forEach(fence -> keysAndArgs.add(rawHashKey(fence)));
+        map.forEach((hashKey, value) -> {
+            keysAndArgs.add(rawHashKey(hashKey));
+            keysAndArgs.add(rawHashValue(value, clazz));
+        });
+        return ScriptConfig.<Long>evalSha(ClassReactiveRedisTemplate.primaryOf(template), ScriptConfig.ScriptType.PUT_CLASS_FENCE, ReturnType.INTEGER, 1,
+                keysAndArgs.toArray(new ByteBuffer[0])).next()
+                .map(Convert::toBool);
+    }
+
+    /**
+     * @param primaryKey 主键
+     * @return 对象的令牌属性名
+     */
+    public static String fencingTokenField(String primaryKey) {
+        return primaryKey + DIVIDE + FENCING_TOKEN;
+    }
+
+    /**
+     * @param values 对象信息
+     * @return 主键:属性 - 值
+     */
+    private Map<String, Object> toHashMap(Collection<HV> values) {
+        Assert.notEmpty(values, "values must not be empty!");
         Map<String, Object> map = Maps.newHashMap();
         Class<?> clazz = null;
         try {
@@ -146,10 +226,7 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
         } catch (Exception e) {
             e.printStackTrace();
         }
-        Class<?> finalClazz = clazz;
-        return createMono(connection -> Flux.fromIterable(() -> map.entrySet().iterator())
-                .collectMap(entry -> rawHashKey(entry.getKey()), entry -> rawHashValue(entry.getValue()))
-                .flatMap(serialized -> connection.hMSet(rawKey(getKey(key, finalClazz)), serialized)));
+        return map;
     }
 
     @Override
@@ -264,6 +341,9 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
         Map<String, Map<String, Object>> allMap = Maps.newHashMap();
         for (int i = 0; i < keys.size(); i++) {
             String key = keys.get(i);
+            if (key.endsWith(DIVIDE + FENCING_TOKEN)) {
+                continue;
+            }
             Object value = values.get(i);
             String[] split = key.split(":");
             Assert.isTrue(split.length > 0, "分割属性出错 ");
@@ -302,6 +382,26 @@ public class ReactiveClassOperationsImpl<H, HK, HV> implements ReactiveClassOper
      * 获取 hashkey 前缀
      */
     private String getHashKeyPre(HV value) throws IllegalAccessException {
+        return hashKeyPre(value);
+    }
+
+    /**
+     * @param value 对象或主键值
+     * @return 主键（对象为 hashkey 前缀，否则为主键值本身），分片时按主键选择节点
+     */
+    public static String primaryKey(Object value) {
+        Assert.notNull(value, "主键值不能为空");
+        if (value.getClass().getAnnotation(RedisKey.class) == null) {
+            return Objects.toString(value);
+        }
+        try {
+            return hashKeyPre(value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hashKeyPre(Object value) throws IllegalAccessException {
         Map<String, Object> keyMap = Maps.newHashMap();
         Class<?> clazz = value.getClass();
         Field[] declaredFields = clazz.getDeclaredFields();
@@ -0,0 +1,70 @@
+package com.uetty.rule.config.redis.operations.impl;
+
+import com.uetty.cloud.utils.Convert;
+import com.uetty.rule.config.redis.lock.LockPubSub;
+import com.uetty.rule.config.redis.operations.ReactiveCountDownLatchOperations;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+
+/**
+ * redis 倒计数器
+ */
+@RequiredArgsConstructor
+public class ReactiveCountDownLatchOperationsImpl implements ReactiveCountDownLatchOperations {
+
+    private final @NonNull ClassReactiveRedisTemplate<?, ?> template;
+    private final @NonNull RedisSerializationContext<?, ?> serializationContext;
+
+    private ByteBuffer rawValue(Object value) {
+        return serializationContext.getHashValueSerializationPair().write(value);
+    }
+
+    private ByteBuffer scriptBytes(String key) {
+        return serializationContext.getStringSerializationPair().getWriter().write(key);
+    }
+
+    @Override
+    public Mono<Boolean> trySetCount(String key, long count) {
+        Assert.isTrue(count > 0, "count must be greater than 0!");
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.TRY_SET_COUNT, ReturnType.INTEGER, 1,
+                scriptBytes(key), scriptBytes(String.valueOf(count)))
+                .next()
+                .map(Convert::toBool);
+    }
+
+    @Override
+    public Mono<Long> countDown(String key) {
+        return template.opsForScriptBatch().evalSha(ScriptConfig.ScriptType.COUNT_DOWN, ReturnType.INTEGER, 2,
+                scriptBytes(key), scriptBytes(getChannelName(key)), rawValue(LockPubSub.unlockMessage));
+    }
+
+    @Override
+    public Mono<Long> getCount(String key) {
+        return template.createMono(connection -> connection.stringCommands().get(scriptBytes(key)))
+                .map(value -> Convert.toLong(serializationContext.getStringSerializationPair().read(value)))
+                .defaultIfEmpty(0L);
+    }
+
+    @Override
+    public Mono<Void> await(String key) {
+        //订阅确认后（包括重新订阅）和每次收到消息时检查计数
+        return template.listenToChannelNotifications(getChannelName(key))
+                .concatMap(signal -> getCount(key).map(count -> count <= 0))
+                .filter(Boolean::booleanValue)
+                .next()
+                .then();
+    }
+
+    private String getChannelName(String key) {
+        return "redis_latch_topic:{" + key + "}";
+    }
+
+}
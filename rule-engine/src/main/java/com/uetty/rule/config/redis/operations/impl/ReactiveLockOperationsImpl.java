@@ -3,6 +3,9 @@ package com.uetty.rule.config.redis.operations.impl;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.uetty.cloud.utils.Convert;
+import com.uetty.rule.config.redis.cluster.ClusterSlots;
+import com.uetty.rule.config.redis.lock.BiasedLockEntry;
+import com.uetty.rule.config.redis.lock.LockMetrics;
 import com.uetty.rule.config.redis.lock.LockPubSub;
 import com.uetty.rule.config.redis.operations.ReactiveLockOperations;
 import com.uetty.rule.config.redis.script.ScriptConfig;
@@ -11,22 +14,28 @@ import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.reactivestreams.Publisher;
 import org.springframework.data.redis.connection.ReactiveScriptingCommands;
 import org.springframework.data.redis.connection.ReactiveSubscription;
 import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.util.Assert;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.function.Function;
@@ -34,19 +43,43 @@ import java.util.function.Function;
 /**
  * redis lock(重入锁)
  */
+@Slf4j
 @RequiredArgsConstructor
 public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
 
     private final @NonNull ClassReactiveRedisTemplate<?, ?> template;
     private final @NonNull RedisSerializationContext<?, ?> serializationContext;
 
-    private static final ConcurrentMap<String, Timeout> expirationRenewalMap = Maps.newConcurrentMap();
+    /**
+     * 持有中的锁的租约（租约时间和续期任务），操作对象被所有调用共用，每次获取的租约时间只保存在这里
+     */
+    private static final ConcurrentMap<String, LeaseEntry> leaseMap = Maps.newConcurrentMap();
+    //续期定时器
+    private static final HashedWheelTimer renewalTimer = new HashedWheelTimer();
+    //监控指标
+    private volatile LockMetrics lockMetrics = LockMetrics.NONE;
     //默认过期时间
     private static final long LOCK_EXPIRATION_INTERVAL_SECONDS = 30;
-    //初始过期时间
-    protected long internalLockLeaseTime = TimeUnit.SECONDS.toMillis(LOCK_EXPIRATION_INTERVAL_SECONDS);
+    //默认租约时间（毫秒）
+    private static final long DEFAULT_LEASE_TIME = TimeUnit.SECONDS.toMillis(LOCK_EXPIRATION_INTERVAL_SECONDS);
+    //偏向锁空闲释放时间
+    protected long biasedIdleTime = TimeUnit.SECONDS.toMillis(5);
+    //偏向锁租约
+    /**
+     * 进程级节点id，同一进程的所有锁操作使用同一个id（锁持有者 = 节点id:线程id）
+     */
+    public static final UUID NODE_ID = UUID.randomUUID();
+
+    private final ConcurrentMap<String, BiasedLockEntry> biasedLockMap = Maps.newConcurrentMap();
     final UUID id;
 
+    /**
+     * @param lockMetrics 监控指标
+     */
+    public void setLockMetrics(LockMetrics lockMetrics) {
+        this.lockMetrics = lockMetrics;
+    }
+
     private ByteBuffer rawKey(Object key) {
         return serializationContext.getHashValueSerializationPair().write(key);
     }
@@ -80,24 +113,50 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
 
     public Mono<Void> lockInterruptibly(String key, long leaseTime, TimeUnit unit) throws InterruptedException {
         long threadId = Thread.currentThread().getId();
+        String lockName = getLockName(threadId);
+        long start = System.nanoTime();
         AtomicReference<Long> tta = new AtomicReference<>();
-        //尝试获取锁
+        AtomicBoolean waiting = new AtomicBoolean();
+        //尝试获取锁（一次获取只记录一次是否竞争，等待中的重试不再记录）
         return tryAcquire(key, leaseTime, unit, threadId)
+                .doOnSuccess(ttl -> lockMetrics.attempt(key, lockName, ttl == null))
                 .filter(Objects::nonNull)//过期时间为空，则代表获取到锁。
-                .flatMapMany(time -> this.subscribe(key))//没获取到锁，订阅该key，等待其他线程释放锁，其他线程释放锁的时候发布
-                .map(v -> tryAcquire(key, leaseTime, unit, threadId)//上锁后再获取一次锁
+                .flatMapMany(time -> {
+                    waiting.set(true);
+                    lockMetrics.waiterAdded(key);
+                    return this.subscribe(key);
+                })//没获取到锁，订阅该key，等待其他线程释放锁，其他线程释放锁的时候发布
+                .map(v -> retryAcquire(key, leaseTime, unit, threadId)//上锁后再获取一次锁
                         .flatMap(ttl -> { //监听订阅，获取发布的信息
                             tta.set(ttl);
                             if (ttl >= 0) {
-                                return getEntry(key).flatMap(message -> tryAcquire(key, ttl, TimeUnit.MILLISECONDS, threadId));
+                                return getEntry(key).flatMap(message -> retryAcquire(key, ttl, TimeUnit.MILLISECONDS, threadId));
                             } else {
-                                return getEntry(key).flatMap(message -> tryAcquire(key, 0L, TimeUnit.MILLISECONDS, threadId));
+                                return getEntry(key).flatMap(message -> retryAcquire(key, 0L, TimeUnit.MILLISECONDS, threadId));
                             }
                         })
                         .repeat(() -> tta.get() != null)//循环，直到ttl为null
                         .subscribe()
                 )
-                .then(this.unsubscribe(key));//取消订阅
+                .then(this.unsubscribe(key))//取消订阅
+                .doOnSuccess(v -> lockMetrics.waited(key, start))
+                .doFinally(signal -> {
+                    if (waiting.compareAndSet(true, false)) {
+                        lockMetrics.waiterRemoved(key);
+                    }
+                });
+    }
+
+    /**
+     * 等待中重试获取锁，获取成功时开始记录持有时间（竞争已经在第一次获取时记录）
+     */
+    private Mono<Long> retryAcquire(String key, long leaseTime, TimeUnit unit, long threadId) {
+        return tryAcquire(key, leaseTime, unit, threadId)
+                .doOnSuccess(ttl -> {
+                    if (ttl == null) {
+                        lockMetrics.acquired(key, getLockName(threadId));
+                    }
+                });
     }
 
     @Override
@@ -114,10 +173,17 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
     }
 
     private Mono<Boolean> tryAcquireOnceAsync(String key, long leaseTime, TimeUnit unit, long threadId) {
-        if (leaseTime != -1) {
-            return tryLockInnerAsync(key, leaseTime, unit, threadId).map(Convert::toBool);
-        }
-        return tryLockInnerAsync(key, LOCK_EXPIRATION_INTERVAL_SECONDS, TimeUnit.SECONDS, threadId).map(Convert::toBool);
+        long start = System.nanoTime();
+        long leaseMillis = leaseTime != -1 ? unit.toMillis(leaseTime) : DEFAULT_LEASE_TIME;
+        return tryLockInnerAsync(key, leaseMillis, threadId)
+                .map(time -> false)
+                .defaultIfEmpty(true)
+                .doOnNext(locked -> {
+                    if (locked) {
+                        holdLease(key, leaseMillis);
+                    }
+                    recordAttempt(key, getLockName(threadId), locked, start);
+                });
     }
 
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
@@ -132,26 +198,330 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
                                 + id + " thread-id: " + Thread.currentThread().getId());
                     }
                     if (opStatus) {
-                        cancelExpirationRenewal(key);
+                        releaseLease(key);
+                        lockMetrics.released(key, getLockName(Thread.currentThread().getId()));
                     }
                 })
                 .then();
     }
 
-    private void cancelExpirationRenewal(String key) {
-        Timeout task = expirationRenewalMap.remove(getEntryName(key));
-        if (task != null) {
-            task.cancel();
+    /**
+     * 记录获取到的锁的租约时间（重入时更新租约时间，保留续期任务）
+     *
+     * @param key         锁名（多个锁共用续期时为逗号连接的锁名）
+     * @param leaseMillis 租约时间（毫秒）
+     */
+    private void holdLease(String key, long leaseMillis) {
+        leaseMap.compute(getEntryName(key), (name, entry) -> {
+            if (entry == null) {
+                return new LeaseEntry(leaseMillis);
+            }
+            entry.leaseTime = leaseMillis;
+            return entry;
+        });
+    }
+
+    /**
+     * @return 锁的租约时间（毫秒），没有记录时为默认租约时间
+     */
+    private long leaseTime(String key) {
+        LeaseEntry entry = leaseMap.get(getEntryName(key));
+        return entry == null ? DEFAULT_LEASE_TIME : entry.leaseTime;
+    }
+
+    /**
+     * 锁完全释放，删除租约并取消续期
+     */
+    private void releaseLease(String key) {
+        LeaseEntry entry = leaseMap.remove(getEntryName(key));
+        if (entry != null) {
+            Timeout task = entry.task.getAndSet(null);
+            if (task != null) {
+                task.cancel();
+            }
         }
     }
 
-    @SuppressWarnings("unchecked")
     private Mono<Boolean> unlockInnerAsync(String key, long threadId) {
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.UN_LOCK, ReturnType.INTEGER, 2,
+                scriptBytes(key), scriptBytes(getChannelName(key)), rawKey(LockPubSub.unlockMessage),
+                rawKey((int) leaseTime(key)), scriptBytes(getLockName(threadId)))
+                .next()
+                .map(Convert::toBool);
+    }
+
+    @Override
+    public Mono<Long> tryLockWithFencingToken(String key) {
+        long threadId = Thread.currentThread().getId();
+        long start = System.nanoTime();
+        return tryLockRawAsync(key, DEFAULT_LEASE_TIME, getLockName(threadId))
+                .doOnNext(token -> recordAttempt(key, getLockName(threadId), token > 0, start))
+                .filter(token -> token > 0)//负数代表其他线程在占用锁
+                .doOnNext(token -> {
+                    holdLease(key, DEFAULT_LEASE_TIME);
+                    scheduleExpirationRenewal(key, threadId);
+                });
+    }
+
+    @Override
+    public Mono<Long> getFencingToken(String key) {
+        String lockName = biasedLockMap.containsKey(key) ? getBiasedLockName() : getLockName(Thread.currentThread().getId());
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.FENCING_TOKEN, ReturnType.INTEGER, 1,
+                scriptBytes(key), scriptBytes(lockName)).next();
+    }
+
+    @Override
+    public Mono<Boolean> tryLockBiased(String key) {
+        long start = System.nanoTime();
+        long threadId = Thread.currentThread().getId();
+        BiasedLockEntry entry = biasedLockMap.get(key);
+        if (entry != null) {
+            //本节点持有租约时不访问redis（持有者是整个节点，redis会当作重入），本地正在使用或租约正在释放时获取失败
+            boolean locked = entry.tryAcquireLocal(threadId);
+            recordAttempt(key, getBiasedLocalName(), locked, start);
+            return Mono.just(locked);
+        }
+        String lockName = getBiasedLockName();
+        return tryLockInnerAsync(key, DEFAULT_LEASE_TIME, lockName)
+                .map(ttl -> false)
+                .defaultIfEmpty(true)
+                .flatMap(locked -> {
+                    if (!locked) {
+                        //通知持有租约的节点释放（独立的channel，不唤醒等待普通锁的线程）
+                        return publish(getRevokeChannelName(key), LockPubSub.revokeMessage).thenReturn(false);
+                    }
+                    BiasedLockEntry newEntry = new BiasedLockEntry(threadId);
+                    if (biasedLockMap.putIfAbsent(key, newEntry) != null) {
+                        //同时获取时其他调用已经登记了租约，这次获取在redis中是重入，撤销
+                        return unlockBiasedInner(key).thenReturn(false);
+                    }
+                    newEntry.setSubscription(template.listenToChannel(getRevokeChannelName(key))
+                            .subscribe(message -> {
+                                newEntry.requestRevoke();
+                                releaseBiased(key, newEntry).subscribe(null, e -> log.error("释放偏向锁失败: " + key, e));
+                            }));
+                    holdLease(key, DEFAULT_LEASE_TIME);
+                    scheduleExpirationRenewal(key, lockName);
+                    return Mono.just(true);
+                })
+                .doOnNext(locked -> recordAttempt(key, getBiasedLocalName(), locked, start));
+    }
+
+    /**
+     * 记录一次获取锁（是否竞争），获取成功时记录等待时间并开始记录持有时间
+     */
+    private void recordAttempt(String key, String lockName, boolean locked, long start) {
+        lockMetrics.attempt(key, lockName, locked);
+        if (locked) {
+            lockMetrics.waited(key, start);
+        }
+    }
+
+    @Override
+    public Mono<Void> unlockBiased(String key) {
+        BiasedLockEntry entry = biasedLockMap.get(key);
+        if (entry == null) {
+            return Mono.error(new IllegalMonitorStateException("attempt to unlock biased lock, not locked by node id: " + id));
+        }
+        if (!entry.releaseLocal(Thread.currentThread().getId())) {
+            return Mono.error(new IllegalMonitorStateException("attempt to unlock biased lock, not locked by current thread by node id: "
+                    + id + " thread-id: " + Thread.currentThread().getId()));
+        }
+        lockMetrics.released(key, getBiasedLocalName());
+        if (entry.isRevokeRequested()) {
+            return releaseBiased(key, entry);
+        }
+        //空闲超时后释放
+        entry.setIdleTask(renewalTimer.newTimeout(timeout -> {
+            if (System.currentTimeMillis() - entry.getLastUsed() >= biasedIdleTime) {
+                releaseBiased(key, entry).subscribe(null, e -> log.error("释放偏向锁失败: " + key, e));
+            }
+        }, biasedIdleTime, TimeUnit.MILLISECONDS));
+        return Mono.empty();
+    }
+
+    /**
+     * 释放偏向锁的redis租约（本地仍在使用时不释放，本地释放时再判断）
+     */
+    private Mono<Void> releaseBiased(String key, BiasedLockEntry entry) {
+        if (!entry.tryRevoke()) {
+            return Mono.empty();
+        }
+        releaseLease(key);
+        return unlockBiasedInner(key)
+                .doFinally(signal -> biasedLockMap.remove(key, entry));
+    }
+
+    /**
+     * @return 偏向锁的持有次数减1（持有次数为0时删除redis锁）
+     */
+    private Mono<Void> unlockBiasedInner(String key) {
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.UN_LOCK, ReturnType.INTEGER, 2,
+                scriptBytes(key), scriptBytes(getChannelName(key)), rawKey(LockPubSub.unlockMessage),
+                rawKey((int) leaseTime(key)), scriptBytes(getBiasedLockName()))
+                .then();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Mono<Long> publish(String channel, Object message) {
         ReactiveRedisTemplate<String, Object> template = (ReactiveRedisTemplate<String, Object>) this.template;
-        return template.execute(ScriptConfig.<Boolean>getScript(ScriptConfig.ScriptType.UN_LOCK),
-                Lists.newArrayList(key, getChannelName(key)),
-                Lists.newArrayList(LockPubSub.unlockMessage, internalLockLeaseTime, getLockName(threadId)))
-                .next();
+        return template.convertAndSend(channel, message);
+    }
+
+    @Override
+    public Mono<Boolean> lockAll(Collection<String> keys) {
+        return lockAllWithFencingTokens(keys).map(tokens -> true).defaultIfEmpty(false);
+    }
+
+    @Override
+    public Mono<Map<String, Long>> lockAllWithFencingTokens(Collection<String> keys) {
+        Assert.notEmpty(keys, "keys must not be empty!");
+        List<String> lockKeys = sortedKeys(keys);
+        long threadId = Thread.currentThread().getId();
+        List<List<String>> groups = slotGroups(lockKeys);
+        //按槽位顺序逐组获取（所有节点顺序一致），某一组失败时释放已获取的组
+        return Mono.defer(() -> {
+            List<List<String>> acquired = Lists.newArrayList();
+            Map<String, Long> tokens = Maps.newLinkedHashMap();
+            return Flux.fromIterable(groups)
+                    .concatMap(group -> tryLockAllInnerAsync(group, DEFAULT_LEASE_TIME, threadId)
+                            .map(groupTokens -> {
+                                //只返回一个负数，代表存在被其他线程占用的锁
+                                if (groupTokens.size() != group.size() || groupTokens.get(0) <= 0) {
+                                    return false;
+                                }
+                                acquired.add(group);
+                                for (int i = 0; i < group.size(); i++) {
+                                    tokens.put(group.get(i), groupTokens.get(i));
+                                }
+                                return true;
+                            }))
+                    .takeUntil(locked -> !locked)
+                    .all(Boolean::booleanValue)
+                    .flatMap(locked -> locked ? Mono.just(tokens)
+                            : Flux.fromIterable(acquired).flatMap(group -> unlockGroup(group, threadId)).then(Mono.<Map<String, Long>>empty()));
+        })
+                .doOnSuccess(tokens -> {
+                    boolean locked = tokens != null;
+                    lockKeys.forEach(key -> lockMetrics.attempt(key, getLockName(threadId), locked));
+                    if (locked) {
+                        groups.forEach(group -> {
+                            holdLease(String.join(",", group), DEFAULT_LEASE_TIME);
+                            scheduleExpirationRenewalAll(group, threadId);
+                        });
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Void> unlockAll(Collection<String> keys) {
+        Assert.notEmpty(keys, "keys must not be empty!");
+        List<String> lockKeys = sortedKeys(keys);
+        long threadId = Thread.currentThread().getId();
+        //不同槽位的组并行释放
+        return Flux.fromIterable(slotGroups(lockKeys))
+                .flatMap(group -> unlockGroup(group, threadId)
+                        .switchIfEmpty(Mono.defer(() -> Mono.error(new IllegalMonitorStateException("attempt to unlock locks " + group
+                                + ", not locked by current thread by node id: " + id + " thread-id: " + threadId)))))
+                .then();
+    }
+
+    /**
+     * @return 锁按槽位分组（单机时只有一组）
+     */
+    private List<List<String>> slotGroups(List<String> lockKeys) {
+        if (!ClusterSlots.isCluster(template)) {
+            return Collections.singletonList(lockKeys);
+        }
+        return Lists.newArrayList(ClusterSlots.groupBySlot(lockKeys, this::scriptBytes).values());
+    }
+
+    /**
+     * 一次脚本调用释放同一个槽位的锁
+     *
+     * @return 是否完全释放，不是当前线程持有时为空
+     */
+    private Mono<Boolean> unlockGroup(List<String> lockKeys, long threadId) {
+        List<ByteBuffer> keysAndChannels = Lists.newArrayList();
+        lockKeys.forEach(key -> keysAndChannels.add(scriptBytes(key)));
+        lockKeys.forEach(key -> keysAndChannels.add(scriptBytes(getChannelName(key))));
+        List<ByteBuffer> args = Lists.newArrayList(keysAndChannels);
+        args.add(rawKey(LockPubSub.unlockMessage));
+        args.add(rawKey((int) leaseTime(String.join(",", lockKeys))));
+        args.add(scriptBytes(getLockName(threadId)));
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.UN_LOCK_ALL, ReturnType.INTEGER,
+                keysAndChannels.size(), args.toArray(new ByteBuffer[0]))
+                .next()
+                .map(Convert::toBool)
+                .doOnNext(released -> {
+                    if (released) {
+                        releaseLease(String.join(",", lockKeys));
+                        lockKeys.forEach(key -> lockMetrics.released(key, getLockName(threadId)));
+                    }
+                });
+    }
+
+    /**
+     * 排序去重，保证多个节点获取同一组锁时顺序一致
+     */
+    private List<String> sortedKeys(Collection<String> keys) {
+        return Lists.newArrayList(new TreeSet<>(keys));
+    }
+
+    /**
+     * @return 获取成功时为每个锁的令牌，存在被其他线程占用的锁时只有一个负数（-最大剩余时间-1）
+     */
+    @SuppressWarnings("unchecked")
+    private Mono<List<Long>> tryLockAllInnerAsync(List<String> keys, long leaseMillis, long threadId) {
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList();
+        keys.forEach(key -> keysAndArgs.add(scriptBytes(key)));
+        keys.forEach(key -> keysAndArgs.add(scriptBytes(getFenceName(key))));
+        keysAndArgs.add(rawKey((int) leaseMillis));
+        keysAndArgs.add(scriptBytes(getLockName(threadId)));
+        return ScriptConfig.<Object>evalSha(template, ScriptConfig.ScriptType.LOCK_ALL, ReturnType.MULTI,
+                keys.size() * 2, keysAndArgs.toArray(new ByteBuffer[0]))
+                .collectList()
+                .map(list -> list.size() == 1 && list.get(0) instanceof List ? (List<Object>) list.get(0) : list)
+                .map(list -> Lists.transform(list, value -> ((Number) value).longValue()));
+    }
+
+    /**
+     * 多个锁共用一个续期任务，一次脚本调用续期全部锁
+     *
+     * @param keys     锁名集合
+     * @param threadId 线程id
+     */
+    private void scheduleExpirationRenewalAll(List<String> keys, long threadId) {
+        LeaseEntry entry = leaseMap.get(getEntryName(String.join(",", keys)));
+        if (entry == null || entry.task.get() != null) {
+            return;
+        }
+        long leaseMillis = entry.leaseTime;
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList();
+        keys.forEach(key -> keysAndArgs.add(scriptBytes(key)));
+        keysAndArgs.add(rawKey((int) leaseMillis));
+        keysAndArgs.add(scriptBytes(getLockName(threadId)));
+        Timeout task = renewalTimer.newTimeout(timeout -> template.opsForScriptBatch().<Long>evalSha(ScriptConfig.ScriptType.SCHEDULE_LOCK_ALL,
+                ReturnType.INTEGER, keys.size(), keysAndArgs.toArray(new ByteBuffer[0]))
+                .doOnSuccess(renewed -> {
+                    entry.task.set(null);
+                    //仍有锁被当前线程持有，继续续期（已经释放时租约已删除，不再续期）
+                    if (renewed != null && renewed > 0) {
+                        scheduleExpirationRenewalAll(keys, threadId);
+                    }
+                    if (renewed == null || renewed < keys.size()) {
+                        keys.forEach(key -> lockMetrics.leaseExpired(key, getLockName(threadId)));
+                    }
+                })
+                .doOnError(e -> {
+                    entry.task.set(null);
+                    keys.forEach(lockMetrics::renewalFailed);
+                })
+                .subscribe(), leaseMillis / 3, TimeUnit.MILLISECONDS);
+
+        if (!entry.task.compareAndSet(null, task)) {
+            task.cancel();
+        }
     }
 
     public Condition newCondition() {
@@ -202,23 +572,44 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
     private Mono<Long> tryAcquireAsync(String key, long leaseTime, TimeUnit unit, long threadId) {
         if (leaseTime != -1) {
             //设置了等待时间
-            return tryLockInnerAsync(key, leaseTime, unit, threadId);
+            long leaseMillis = unit.toMillis(leaseTime);
+            return tryLockInnerAsync(key, leaseMillis, threadId)
+                    .doOnSuccess(ttl -> {
+                        if (ttl == null) {
+                            holdLease(key, leaseMillis);
+                        }
+                    });
         }
         //默认等待时间
-        Mono<Long> mono = tryLockInnerAsync(key, LOCK_EXPIRATION_INTERVAL_SECONDS, TimeUnit.SECONDS, threadId);
+        Mono<Long> mono = tryLockInnerAsync(key, DEFAULT_LEASE_TIME, threadId);
         return mono.doOnSuccess(ttl -> {
             if (ttl == null) {
                 //过期时间不为空，进入竞争锁状态
+                holdLease(key, DEFAULT_LEASE_TIME);
                 scheduleExpirationRenewal(key, threadId);
             }
         });
     }
 
-    private Mono<Long> tryLockInnerAsync(String key, long leaseTime, TimeUnit unit, long threadId) {
-        internalLockLeaseTime = unit.toMillis(leaseTime);
-        DefaultRedisScript<Long> redisScript = ScriptConfig.getScript(ScriptConfig.ScriptType.LOCK);
-        return createFlux(commands -> commands.<Long>eval(scriptBytes(redisScript.getScriptAsString()), ReturnType.INTEGER, 1,
-                scriptBytes(key), rawKey((int) internalLockLeaseTime), scriptBytes(getLockName(threadId)))).next();
+    private Mono<Long> tryLockInnerAsync(String key, long leaseMillis, long threadId) {
+        return tryLockInnerAsync(key, leaseMillis, getLockName(threadId));
+    }
+
+    /**
+     * @return 获取到锁时为空，否则为锁的剩余时间
+     */
+    private Mono<Long> tryLockInnerAsync(String key, long leaseMillis, String lockName) {
+        return tryLockRawAsync(key, leaseMillis, lockName)
+                .filter(ret -> ret <= 0)
+                .map(ret -> -ret - 1);
+    }
+
+    /**
+     * @return lock.lua 的返回值：正数代表获取成功（锁的令牌），负数为 -剩余时间-1
+     */
+    private Mono<Long> tryLockRawAsync(String key, long leaseMillis, String lockName) {
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.LOCK, ReturnType.INTEGER, 2,
+                scriptBytes(key), scriptBytes(getFenceName(key)), rawKey((int) leaseMillis), scriptBytes(lockName)).next();
     }
 
     /**
@@ -227,27 +618,38 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
      * @param key      锁名
      * @param threadId 线程id
      */
-    @SuppressWarnings("unchecked")
     private void scheduleExpirationRenewal(String key, long threadId) {
-        if (expirationRenewalMap.containsKey(getEntryName(key))) {
+        scheduleExpirationRenewal(key, getLockName(threadId));
+    }
+
+    /**
+     * @param key      锁名
+     * @param lockName 锁的持有者
+     */
+    private void scheduleExpirationRenewal(String key, String lockName) {
+        LeaseEntry entry = leaseMap.get(getEntryName(key));
+        if (entry == null || entry.task.get() != null) {
             return;
         }
-        ReactiveRedisTemplate<String, Object> template = (ReactiveRedisTemplate<String, Object>) this.template;
-        HashedWheelTimer hashedWheelTimer = new HashedWheelTimer();
-        Timeout task = hashedWheelTimer.newTimeout(timeout -> template.execute(ScriptConfig.<Boolean>getScript(ScriptConfig.ScriptType.SCHEDULE_LOCK),
-                Lists.newArrayList(key),
-                Lists.newArrayList(internalLockLeaseTime, getLockName(threadId)))
-                .next()
+        long leaseMillis = entry.leaseTime;
+        //续期调用频繁，合并批量发送
+        Timeout task = renewalTimer.newTimeout(timeout -> template.opsForScriptBatch().<Long>evalSha(ScriptConfig.ScriptType.SCHEDULE_LOCK,
+                ReturnType.INTEGER, 1, scriptBytes(key), rawKey((int) leaseMillis), scriptBytes(lockName))
                 .doOnSuccess(ret -> {
-                    expirationRenewalMap.remove(getEntryName(key));
-                    if (ret) {
-                        scheduleExpirationRenewal(key, threadId);
+                    entry.task.set(null);
+                    if (Convert.toBool(ret)) {
+                        scheduleExpirationRenewal(key, lockName);
+                    } else {
+                        lockMetrics.leaseExpired(key, lockName);
                     }
                 })
-                .subscribe(), internalLockLeaseTime / 3, TimeUnit.MILLISECONDS);
-
+                .doOnError(e -> {
+                    entry.task.set(null);
+                    lockMetrics.renewalFailed(key);
+                })
+                .subscribe(), leaseMillis / 3, TimeUnit.MILLISECONDS);
 
-        if (expirationRenewalMap.putIfAbsent(getEntryName(key), task) != null) {
+        if (!entry.task.compareAndSet(null, task)) {
             task.cancel();
         }
     }
@@ -257,6 +659,7 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
         long current = System.currentTimeMillis();
         final long threadId = Thread.currentThread().getId();
         Long ttl = tryAcquire(key, leaseTime, unit, threadId).toFuture().join();
+        lockMetrics.attempt(key, getLockName(threadId), ttl == null);
         // lock acquired
         if (ttl == null) {
             return true;
@@ -304,6 +707,17 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
         return prefixName("redis_lock_topic", key);
     }
 
+    /**
+     * @return 偏向锁释放请求的channel
+     */
+    private String getRevokeChannelName(String key) {
+        return prefixName("redis_lock_revoke", key);
+    }
+
+    private String getFenceName(String key) {
+        return prefixName("redis_lock_fence", key);
+    }
+
     protected String prefixName(String prefix, String name) {
         if (name.contains("{")) {
             return prefix + ":" + name;
@@ -315,4 +729,32 @@ public class ReactiveLockOperationsImpl implements ReactiveLockOperations {
         return id + ":" + threadId;
     }
 
+    /**
+     * @return 偏向锁的持有者（整个节点共用）
+     */
+    private String getBiasedLockName() {
+        return id + ":biased";
+    }
+
+    /**
+     * @return 偏向锁在本地的持有者（只用于监控指标，同一时间只有一个本地持有者）
+     */
+    private String getBiasedLocalName() {
+        return getBiasedLockName() + ":local";
+    }
+
+    /**
+     * 锁的租约：获取锁时的租约时间（续期、重入释放时重新设置过期时间）和续期任务
+     */
+    private static final class LeaseEntry {
+
+        private volatile long leaseTime;
+
+        private final AtomicReference<Timeout> task = new AtomicReference<>();
+
+        LeaseEntry(long leaseTime) {
+            this.leaseTime = leaseTime;
+        }
+    }
+
 }
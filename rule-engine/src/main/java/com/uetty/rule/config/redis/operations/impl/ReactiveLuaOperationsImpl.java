@@ -1,33 +1,372 @@
 package com.uetty.rule.config.redis.operations.impl;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.uetty.cloud.utils.Convert;
+import com.uetty.rule.config.redis.annotation.RedisKey;
+import com.uetty.rule.config.redis.cluster.ClusterSlots;
+import com.uetty.rule.config.redis.operations.RankedValue;
 import com.uetty.rule.config.redis.operations.ReactiveLuaOperations;
+import com.uetty.rule.config.redis.operations.SlidingWindow;
 import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.RedisZSetCommands.Aggregate;
+import org.springframework.data.redis.connection.RedisZSetCommands.Weights;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
 
 @RequiredArgsConstructor
+@SuppressWarnings("unchecked")
 public class ReactiveLuaOperationsImpl<K, V> implements ReactiveLuaOperations<K, V> {
 
     private final @NonNull ReactiveRedisTemplate<K, V> template;
     private final @NonNull RedisSerializationContext<K, ?> serializationContext;
 
+    private ByteBuffer rawKey(K key) {
+        return serializationContext.getKeySerializationPair().write(key);
+    }
+
+    private ByteBuffer rawString(String value) {
+        return serializationContext.getStringSerializationPair().write(value);
+    }
+
+    private String readString(Object value) {
+        return value instanceof ByteBuffer ? serializationContext.getStringSerializationPair().read((ByteBuffer) value) : Objects.toString(value);
+    }
+
+    /**
+     * @return 分数参数（无穷大转换成redis格式）
+     */
+    private String rawScore(double score) {
+        if (Double.isInfinite(score)) {
+            return score > 0 ? "+inf" : "-inf";
+        }
+        return String.valueOf(score);
+    }
+
+    private V readHashValue(ByteBuffer value) {
+        return (V) serializationContext.getHashValueSerializationPair().read(value);
+    }
+
+    /**
+     * @return 脚本返回的多条结果（兼容整体返回列表和逐条返回两种形式）
+     */
+    private Mono<List<Object>> multi(Flux<Object> result) {
+        return result.collectList()
+                .map(list -> list.size() == 1 && list.get(0) instanceof List ? (List<Object>) list.get(0) : list);
+    }
+
+    /**
+     * @return 反序列化值（忽略空值）
+     */
+    private List<V> readHashValues(List<Object> values, int from) {
+        List<V> list = new ArrayList<>(Math.max(values.size() - from, 0));
+        for (int i = from; i < values.size(); i++) {
+            if (values.get(i) instanceof ByteBuffer) {
+                list.add(readHashValue((ByteBuffer) values.get(i)));
+            }
+        }
+        return list;
+    }
+
     @Override
     public Mono<List<V>> getHashFromSortedSet(K sortedSetKey, K hashKey, long start, long end) {
         Assert.notNull(sortedSetKey, "sortedSetKey must not be null!");
         Assert.notNull(hashKey, "hashKey must not be null!");
-        List<K> keys = Lists.newArrayList();
-        keys.add(sortedSetKey);
-        keys.add(hashKey);
-        return template.execute(ScriptConfig.<List<V>>getScript(ScriptConfig.ScriptType.GET_HASH_FROM_ZSET), keys,
-                Lists.newArrayList(start, end)).last();
+        ClusterSlots.checkSameSlot(template, rawKey(sortedSetKey), rawKey(hashKey));
+        return multi(ScriptConfig.evalSha(template, ScriptConfig.ScriptType.GET_HASH_FROM_ZSET, ReturnType.MULTI, 2,
+                rawKey(sortedSetKey), rawKey(hashKey), rawString(String.valueOf(start)), rawString(String.valueOf(end))))
+                .map(values -> readHashValues(values, 0));
+    }
+
+    @Override
+    public Flux<V> streamHashFromSortedSet(K sortedSetKey, K hashKey, int pageSize) {
+        Assert.notNull(sortedSetKey, "sortedSetKey must not be null!");
+        Assert.notNull(hashKey, "hashKey must not be null!");
+        Assert.isTrue(pageSize > 0, "pageSize must be greater than 0!");
+        ClusterSlots.checkSameSlot(template, rawKey(sortedSetKey), rawKey(hashKey));
+        return rankPage(sortedSetKey, hashKey, 0, pageSize)
+                .expand(page -> page.hasNext ? rankPage(sortedSetKey, hashKey, page.nextStart, pageSize) : Mono.empty())
+                .concatMapIterable(page -> page.values);
+    }
+
+    @Override
+    public Flux<V> streamHashFromSortedSetByScore(K sortedSetKey, K hashKey, double min, double max, int pageSize) {
+        Assert.notNull(sortedSetKey, "sortedSetKey must not be null!");
+        Assert.notNull(hashKey, "hashKey must not be null!");
+        Assert.isTrue(pageSize > 0, "pageSize must be greater than 0!");
+        ClusterSlots.checkSameSlot(template, rawKey(sortedSetKey), rawKey(hashKey));
+        return scorePage(sortedSetKey, hashKey, rawScore(min), rawScore(max), 0, pageSize)
+                .expand(page -> page.hasNext
+                        ? scorePage(sortedSetKey, hashKey, page.nextMin, rawScore(max), page.nextOffset, pageSize)
+                        : Mono.empty())
+                .concatMapIterable(page -> page.values);
+    }
+
+    @Override
+    public Mono<List<RankedValue<V>>> rangeByScoreWithRank(K sortedSetKey, K hashKey, Class<V> clazz, double min, double max,
+                                                           long offset, int count, boolean reverse) {
+        Assert.notNull(sortedSetKey, "sortedSetKey must not be null!");
+        Assert.notNull(clazz, "clazz must not be null!");
+        Assert.isTrue(count > 0, "count must be greater than 0!");
+        List<Field> fields = getFields(clazz);
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList(rawKey(sortedSetKey), rawKey(getKey(hashKey, clazz)),
+                rawString(rawScore(min)), rawString(rawScore(max)), rawString(String.valueOf(offset)),
+                rawString(String.valueOf(count)), rawString(reverse ? "1" : "0"));
+        fields.forEach(field -> keysAndArgs.add(rawString(field.getName())));
+        ClusterSlots.checkSameSlot(template, keysAndArgs.get(0), keysAndArgs.get(1));
+        return multi(ScriptConfig.evalSha(template, ScriptConfig.ScriptType.RANK_BY_SCORE, ReturnType.MULTI, 2,
+                keysAndArgs.toArray(new ByteBuffer[0])))
+                .map(reply -> toRankedValues(reply, clazz, fields));
+    }
+
+    @Override
+    public Mono<List<RankedValue<V>>> intersectWithRank(List<K> sortedSetKeys, Weights weights, Aggregate aggregate, K hashKey,
+                                                        Class<V> clazz, long offset, int count, boolean reverse, Duration ttl) {
+        return combineWithRank("zinterstore", sortedSetKeys, weights, aggregate, hashKey, clazz, offset, count, reverse, ttl);
+    }
+
+    @Override
+    public Mono<List<RankedValue<V>>> unionWithRank(List<K> sortedSetKeys, Weights weights, Aggregate aggregate, K hashKey,
+                                                    Class<V> clazz, long offset, int count, boolean reverse, Duration ttl) {
+        return combineWithRank("zunionstore", sortedSetKeys, weights, aggregate, hashKey, clazz, offset, count, reverse, ttl);
+    }
+
+    private Mono<List<RankedValue<V>>> combineWithRank(String command, List<K> sortedSetKeys, Weights weights, Aggregate aggregate,
+                                                       K hashKey, Class<V> clazz, long offset, int count, boolean reverse, Duration ttl) {
+        Assert.notEmpty(sortedSetKeys, "sortedSetKeys must not be empty!");
+        Assert.notNull(clazz, "clazz must not be null!");
+        Assert.isTrue(count > 0, "count must be greater than 0!");
+        Assert.isTrue(offset >= 0, "offset must not be negative!");
+        Assert.isTrue(ttl != null && ttl.toMillis() > 0, "ttl must be greater than 0!");
+        weights = weights == null ? Weights.fromSetCount(sortedSetKeys.size()) : weights;
+        aggregate = aggregate == null ? Aggregate.SUM : aggregate;
+        Assert.isTrue(weights.size() == sortedSetKeys.size(), "weights must match sortedSetKeys!");
+        List<Field> fields = getFields(clazz);
+        List<ByteBuffer> keys = Lists.newArrayList(rawString(getCombineName(command, sortedSetKeys, weights, aggregate)),
+                rawKey(getKey(hashKey, clazz)));
+        sortedSetKeys.forEach(key -> keys.add(rawKey(key)));
+        ClusterSlots.checkSameSlot(template, keys.toArray(new ByteBuffer[0]));
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList(keys);
+        keysAndArgs.add(rawString(command));
+        keysAndArgs.add(rawString(aggregate.name()));
+        keysAndArgs.add(rawString(String.valueOf(ttl.toMillis())));
+        keysAndArgs.add(rawString(String.valueOf(offset)));
+        keysAndArgs.add(rawString(String.valueOf(count)));
+        keysAndArgs.add(rawString(reverse ? "1" : "0"));
+        for (double weight : weights.toArray()) {
+            keysAndArgs.add(rawString(rawScore(weight)));
+        }
+        fields.forEach(field -> keysAndArgs.add(rawString(field.getName())));
+        //合并结果写入临时key，在主节点执行
+        return multi(ScriptConfig.evalSha(ClassReactiveRedisTemplate.primaryOf(template), ScriptConfig.ScriptType.COMBINE_ZSET, ReturnType.MULTI, keys.size(),
+                keysAndArgs.toArray(new ByteBuffer[0])))
+                .map(reply -> toRankedValues(reply, clazz, fields));
+    }
+
+    /**
+     * @return 临时key名称（相同的合并条件共用一个临时key，使用第一个排行榜的 hash tag，和排行榜在同一个槽位）
+     */
+    private String getCombineName(String command, List<K> sortedSetKeys, Weights weights, Aggregate aggregate) {
+        String hashTag = ClusterSlots.hashTag(readString(rawKey(sortedSetKeys.get(0))));
+        StringJoiner joiner = new StringJoiner(",", "redis_zset_combine:{" + hashTag + "}:" + command + ":" + aggregate.name() + ":", "");
+        double[] weightArray = weights.toArray();
+        for (int i = 0; i < sortedSetKeys.size(); i++) {
+            joiner.add(sortedSetKeys.get(i) + "*" + weightArray[i]);
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    public Mono<Long> recordEvent(K counterKey, SlidingWindow window, long count) {
+        Assert.notNull(counterKey, "counterKey must not be null!");
+        Assert.notNull(window, "window must not be null!");
+        long bucket = window.bucket(System.currentTimeMillis());
+        ReactiveRedisTemplate<K, V> primary = ClassReactiveRedisTemplate.primaryOf(template);
+        ByteBuffer[] keysAndArgs = {rawKey(counterKey), rawString(String.valueOf(bucket)), rawString(String.valueOf(window.getBucketCount())),
+                rawString(String.valueOf(count)), rawString(String.valueOf(window.ttlMillis()))};
+        if (primary instanceof ClassReactiveRedisTemplate) {
+            //计数调用频繁，合并批量发送
+            return ((ClassReactiveRedisTemplate<K, V>) primary).opsForScriptBatch()
+                    .evalSha(ScriptConfig.ScriptType.RECORD_EVENT, ReturnType.INTEGER, 1, keysAndArgs);
+        }
+        return ScriptConfig.<Long>evalSha(primary, ScriptConfig.ScriptType.RECORD_EVENT, ReturnType.INTEGER, 1, keysAndArgs).next();
+    }
+
+    @Override
+    public Mono<Long> countEvents(K counterKey, SlidingWindow window) {
+        Assert.notNull(counterKey, "counterKey must not be null!");
+        return countEvents(Lists.newArrayList(counterKey), window)
+                .map(counts -> counts.getOrDefault(counterKey, 0L));
+    }
+
+    @Override
+    public Mono<Map<K, Long>> countEvents(Collection<K> counterKeys, SlidingWindow window) {
+        Assert.notEmpty(counterKeys, "counterKeys must not be empty!");
+        Assert.notNull(window, "window must not be null!");
+        List<K> keys = new ArrayList<>(counterKeys);
+        long bucket = window.bucket(System.currentTimeMillis());
+        if (!ClusterSlots.isCluster(template)) {
+            return countEvents(keys, window, bucket);
+        }
+        //集群模式按槽位分组，各组并行执行后按传入顺序合并
+        return Flux.fromIterable(ClusterSlots.groupBySlot(keys, this::rawKey).values())
+                .flatMap(group -> countEvents(group, window, bucket))
+                .collectList()
+                .map(groups -> {
+                    Map<K, Long> merged = Maps.newHashMap();
+                    groups.forEach(merged::putAll);
+                    Map<K, Long> counts = Maps.newLinkedHashMap();
+                    keys.forEach(key -> counts.put(key, merged.getOrDefault(key, 0L)));
+                    return counts;
+                });
+    }
+
+    /**
+     * @param keys   同一个槽位的计数器（单机时为全部计数器）
+     * @param bucket 当前时间的桶
+     * @return 一次脚本调用统计
+     */
+    private Mono<Map<K, Long>> countEvents(List<K> keys, SlidingWindow window, long bucket) {
+        List<ByteBuffer> keysAndArgs = Lists.newArrayListWithCapacity(keys.size() + 2);
+        keys.forEach(key -> keysAndArgs.add(rawKey(key)));
+        keysAndArgs.add(rawString(String.valueOf(bucket)));
+        keysAndArgs.add(rawString(String.valueOf(window.getBucketCount())));
+        return multi(ScriptConfig.evalSha(template, ScriptConfig.ScriptType.COUNT_EVENTS, ReturnType.MULTI, keys.size(),
+                keysAndArgs.toArray(new ByteBuffer[0])))
+                .map(reply -> {
+                    Map<K, Long> counts = Maps.newLinkedHashMap();
+                    for (int i = 0; i < keys.size(); i++) {
+                        counts.put(keys.get(i), i < reply.size() ? Convert.toLong(reply.get(i)) : 0L);
+                    }
+                    return counts;
+                });
+    }
+
+    /**
+     * @param reply  {数量, 属性数量, 第一个排名, 成员, 分数, 属性值...}
+     * @param clazz  对象类型
+     * @param fields 属性
+     * @return 组装成对象
+     */
+    private List<RankedValue<V>> toRankedValues(List<Object> reply, Class<V> clazz, List<Field> fields) {
+        int size = Convert.toInt(reply.get(0));
+        List<RankedValue<V>> list = new ArrayList<>(size);
+        if (size == 0) {
+            return list;
+        }
+        int fieldCount = Convert.toInt(reply.get(1));
+        long rank = Convert.toLong(reply.get(2));
+        int index = 3;
+        try {
+            for (int i = 0; i < size; i++) {
+                // 成员即主键，属性中已经包含主键值
+                index++;
+                double score = Double.parseDouble(readString(reply.get(index++)));
+                V value = clazz.getDeclaredConstructor().newInstance();
+                for (int j = 0; j < fieldCount; j++) {
+                    Object fieldValue = reply.get(index++);
+                    if (fieldValue instanceof ByteBuffer) {
+                        fields.get(j).set(value, serializationContext.getHashValueSerializationPair().read((ByteBuffer) fieldValue));
+                    }
+                }
+                list.add(new RankedValue<>(value, score, rank + i));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建对象失败: " + clazz.getName(), e);
+        }
+        return list;
+    }
+
+    /**
+     * @return 对象属性（与写入时的属性一致）
+     */
+    private List<Field> getFields(Class<V> clazz) {
+        List<Field> fields = Lists.newArrayList();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    private K getKey(K key, Class<?> clazz) {
+        if (key == null) {
+            RedisKey redisKey = clazz.getAnnotation(RedisKey.class);
+            Assert.notNull(redisKey, "@RedisKey value 不能没有key");
+            key = (K) redisKey.value();
+        }
+        return key;
+    }
+
+    /**
+     * @return 按排名读取一页
+     */
+    private Mono<Page<V>> rankPage(K sortedSetKey, K hashKey, long start, int pageSize) {
+        return multi(ScriptConfig.evalSha(template, ScriptConfig.ScriptType.GET_HASH_FROM_ZSET_PAGE, ReturnType.MULTI, 2,
+                rawKey(sortedSetKey), rawKey(hashKey), rawString(String.valueOf(start)), rawString(String.valueOf(start + pageSize - 1))))
+                .map(reply -> {
+                    long count = Convert.toLong(reply.get(0));
+                    return new Page<>(readHashValues(reply, 1), count == pageSize, start + count, null, 0);
+                });
+    }
+
+    /**
+     * 下一页从最后一个分数开始（包含），跳过该分数已经读取过的数量，分数相同的成员不会重复或遗漏
+     *
+     * @return 按分数读取一页
+     */
+    private Mono<Page<V>> scorePage(K sortedSetKey, K hashKey, String min, String max, long offset, int pageSize) {
+        return multi(ScriptConfig.evalSha(template, ScriptConfig.ScriptType.GET_HASH_FROM_ZSET_BY_SCORE, ReturnType.MULTI, 2,
+                rawKey(sortedSetKey), rawKey(hashKey), rawString(min), rawString(max),
+                rawString(String.valueOf(offset)), rawString(String.valueOf(pageSize))))
+                .map(reply -> {
+                    long count = Convert.toLong(reply.get(0));
+                    if (count == 0) {
+                        return new Page<V>(new ArrayList<>(), false, 0, null, 0);
+                    }
+                    String lastScore = readString(reply.get(1));
+                    long tie = Convert.toLong(reply.get(2));
+                    long nextOffset = lastScore.equals(min) ? offset + tie : tie;
+                    return new Page<>(readHashValues(reply, 3), count == pageSize, 0, lastScore, nextOffset);
+                });
+    }
+
+    /**
+     * 分页结果
+     */
+    @AllArgsConstructor
+    private static class Page<V> {
+
+        private final List<V> values;
+
+        private final boolean hasNext;
+
+        private final long nextStart;
 
+        private final String nextMin;
 
+        private final long nextOffset;
     }
 }
@@ -0,0 +1,175 @@
+package com.uetty.rule.config.redis.operations.impl;
+
+import com.google.common.collect.Lists;
+import com.uetty.rule.config.redis.lock.LockPubSub;
+import com.uetty.rule.config.redis.operations.ReactiveRedLockOperations;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis 多节点锁（Redlock）
+ * <p>
+ * 在N个相互独立的redis节点上并行执行 lock.lua/unLock.lua，
+ * 多数节点（N/2+1）获取成功，并且扣除获取耗时和时钟漂移后锁仍然有效，才代表获取到锁
+ */
+public class ReactiveRedLockOperationsImpl implements ReactiveRedLockOperations {
+
+    //默认过期时间
+    private static final long LOCK_EXPIRATION_INTERVAL_SECONDS = 30;
+    //时钟漂移系数
+    private static final double CLOCK_DRIFT_FACTOR = 0.01;
+    //单个节点最长等待时间（占过期时间的比例）
+    private static final int NODE_TIMEOUT_DIVISOR = 10;
+
+    private final List<ClassReactiveRedisTemplate<?, ?>> templates;
+    private final RedisSerializationContext<?, ?> serializationContext;
+    private final UUID id;
+
+    public ReactiveRedLockOperationsImpl(List<? extends ReactiveRedisConnectionFactory> connectionFactories, UUID id) {
+        Assert.notEmpty(connectionFactories, "connectionFactories must not be empty!");
+        this.templates = Lists.newArrayList();
+        for (ReactiveRedisConnectionFactory connectionFactory : connectionFactories) {
+            templates.add(new ClassReactiveRedisTemplate<Object, Object>(connectionFactory));
+        }
+        this.serializationContext = templates.get(0).getSerializationContext();
+        this.id = id;
+    }
+
+    private ByteBuffer rawKey(Object key) {
+        return serializationContext.getHashValueSerializationPair().write(key);
+    }
+
+    private ByteBuffer scriptBytes(String key) {
+        return serializationContext.getStringSerializationPair().getWriter().write(key);
+    }
+
+    /**
+     * @return 多数节点数量
+     */
+    private int quorum() {
+        return templates.size() / 2 + 1;
+    }
+
+    @Override
+    public Mono<Boolean> tryLock(String key) {
+        return tryLock(key, LOCK_EXPIRATION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Mono<Boolean> tryLock(String key, long leaseTime, TimeUnit unit) {
+        return tryLockWithValidity(key, leaseTime, unit)
+                .map(validity -> true)
+                .defaultIfEmpty(false);
+    }
+
+    @Override
+    public Mono<Long> tryLockWithValidity(String key, long leaseTime, TimeUnit unit) {
+        long threadId = Thread.currentThread().getId();
+        long leaseMillis = unit.toMillis(leaseTime);
+        Duration nodeTimeout = nodeTimeout(leaseMillis);
+        return Mono.defer(() -> {
+            long start = System.currentTimeMillis();
+            return Flux.fromIterable(templates)
+                    .flatMap(template -> tryLockNode(template, key, leaseMillis, threadId)
+                            .timeout(nodeTimeout)
+                            .onErrorReturn(false))
+                    .filter(Boolean::booleanValue)
+                    .count()
+                    .flatMap(acquired -> {
+                        long validity = validity(leaseMillis, System.currentTimeMillis() - start);
+                        if (acquired >= quorum() && validity > 0) {
+                            return Mono.just(validity);
+                        }
+                        //获取失败，释放所有节点上的锁
+                        return unlockInner(key, leaseMillis, threadId).then(Mono.empty());
+                    });
+        });
+    }
+
+    /**
+     * @param leaseMillis 过期时间
+     * @param elapsed     获取耗时
+     * @return 剩余有效时间 = 过期时间 - 获取耗时 - 时钟漂移
+     */
+    static long validity(long leaseMillis, long elapsed) {
+        long drift = (long) (leaseMillis * CLOCK_DRIFT_FACTOR) + 2;
+        return leaseMillis - elapsed - drift;
+    }
+
+    @Override
+    public Mono<Void> unlock(String key) {
+        return unlockInner(key, TimeUnit.SECONDS.toMillis(LOCK_EXPIRATION_INTERVAL_SECONDS), Thread.currentThread().getId());
+    }
+
+    /**
+     * 在所有节点上释放锁，不可用的节点等待超时后跳过，不阻塞其他节点
+     */
+    private Mono<Void> unlockInner(String key, long leaseMillis, long threadId) {
+        Duration nodeTimeout = nodeTimeout(leaseMillis);
+        return Flux.fromIterable(templates)
+                .flatMap(template -> unlockNode(template, key, leaseMillis, threadId)
+                        .timeout(nodeTimeout)
+                        .onErrorResume(e -> Mono.empty()))
+                .then();
+    }
+
+    /**
+     * @return 单个节点最长等待时间
+     */
+    private static Duration nodeTimeout(long leaseMillis) {
+        return Duration.ofMillis(Math.max(1, leaseMillis / NODE_TIMEOUT_DIVISOR));
+    }
+
+    /**
+     * @return 单个节点获取锁（lock.lua 返回正数（令牌）代表获取成功，负数代表其他线程在占用锁）
+     */
+    private Mono<Boolean> tryLockNode(ClassReactiveRedisTemplate<?, ?> template, String key, long leaseMillis, long threadId) {
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.LOCK, ReturnType.INTEGER, 2,
+                scriptBytes(key), scriptBytes(getFenceName(key)), rawKey((int) leaseMillis), scriptBytes(getLockName(threadId)))
+                .next()
+                .map(ret -> ret > 0)
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * @return 单个节点释放锁
+     */
+    private Mono<Long> unlockNode(ClassReactiveRedisTemplate<?, ?> template, String key, long leaseMillis, long threadId) {
+        List<ByteBuffer> keysAndArgs = Lists.newArrayList(scriptBytes(key), scriptBytes(getChannelName(key)),
+                rawKey(LockPubSub.unlockMessage), rawKey((int) leaseMillis), scriptBytes(getLockName(threadId)));
+        return ScriptConfig.<Long>evalSha(template, ScriptConfig.ScriptType.UN_LOCK, ReturnType.INTEGER, 2,
+                keysAndArgs.toArray(new ByteBuffer[0]))
+                .next();
+    }
+
+    private String getChannelName(String key) {
+        if (key.contains("{")) {
+            return "redis_lock_topic:" + key;
+        }
+        return "redis_lock_topic:{" + key + "}";
+    }
+
+    private String getFenceName(String key) {
+        if (key.contains("{")) {
+            return "redis_lock_fence:" + key;
+        }
+        return "redis_lock_fence:{" + key + "}";
+    }
+
+    private String getLockName(long threadId) {
+        return id + ":" + threadId;
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.uetty.rule.config.redis.pipeline;
+
+import io.lettuce.core.resource.NettyCustomizer;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.Future;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并 flush（自动 pipeline）
+ * <p>
+ * lettuce 每个命令都会单独 flush，高频的小命令（HGET/HMGET/EVALSHA）每个命令一次网络写出。
+ * 这里推迟 flush：时间窗口内的命令一次写出，窗口内数量达到上限时立即写出；
+ * 窗口为 0 时只合并事件循环中已经排队的命令（不增加延迟）
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    /**
+     * 每次写出的命令数量
+     */
+    private static final DistributionSummary BATCH_SIZE = DistributionSummary.builder("redis.pipeline.batch")
+            .description("commands per socket flush")
+            .register(Metrics.globalRegistry);
+
+    private final long windowNanos;
+
+    private final int maxBatch;
+
+    /**
+     * 以下字段只在事件循环线程中访问
+     */
+    private int pending;
+
+    private Future<?> scheduled;
+
+    public FlushCoalescingHandler(Duration window, int maxBatch) {
+        Assert.isTrue(maxBatch > 0, "maxBatch must be greater than 0!");
+        this.windowNanos = window == null ? 0 : window.toNanos();
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * @param window   时间窗口
+     * @param maxBatch 每次写出的最大命令数量
+     * @return 在每个 redis 连接上安装合并 flush（通过 ClientResources 配置，只影响使用该资源的连接）
+     */
+    public static NettyCustomizer customizer(Duration window, int maxBatch) {
+        return new NettyCustomizer() {
+            @Override
+            public void afterChannelInitialized(Channel channel) {
+                //靠近网络的一端，命令编码后的写入直接通过，只推迟 flush
+                channel.pipeline().addFirst(new FlushCoalescingHandler(window, maxBatch));
+            }
+        };
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (++pending >= maxBatch) {
+            flushNow(ctx);
+            return;
+        }
+        if (scheduled == null) {
+            Runnable task = () -> {
+                scheduled = null;
+                flushPending(ctx);
+            };
+            scheduled = windowNanos > 0
+                    ? ctx.executor().schedule(task, windowNanos, TimeUnit.NANOSECONDS)
+                    : ctx.executor().submit(task);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        super.close(ctx, promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow(ctx);
+        super.disconnect(ctx, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        //写缓冲区满时立即写出，避免命令积压
+        if (!ctx.channel().isWritable()) {
+            flushNow(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushNow(ctx);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        flushPending(ctx);
+    }
+
+    private void flushPending(ChannelHandlerContext ctx) {
+        if (pending > 0) {
+            BATCH_SIZE.record(pending);
+            pending = 0;
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.uetty.rule.config.redis.replica;
+
+/**
+ * 读取节点偏好
+ */
+public enum ReadPreference {
+
+    /**
+     * 只从主节点读取
+     */
+    PRIMARY,
+
+    /**
+     * 优先从延迟在允许范围内的从节点读取，没有可用从节点时从主节点读取
+     */
+    REPLICA_PREFERRED
+}
@@ -0,0 +1,154 @@
+package com.uetty.rule.config.redis.replica;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 从节点延迟监控
+ * <p>
+ * 定时记录主节点的复制偏移量（时间, master_repl_offset），从节点的 slave_repl_offset 达到某次记录的偏移量时，
+ * 说明从节点已经包含该时间之前的全部写入，延迟不超过 当前时间 - 记录时间；
+ * 延迟超过 maxStaleness、复制断开或无法连接的从节点不参与读取
+ */
+@Slf4j
+public class ReplicaLagMonitor<T extends ReactiveRedisTemplate<?, ?>> implements Disposable {
+
+    private final ReactiveRedisTemplate<?, ?> primary;
+
+    private final List<T> replicas;
+
+    private final long maxStalenessMillis;
+
+    /**
+     * 主节点复制偏移量记录 {时间, 偏移量}，新的在前
+     */
+    private final Deque<long[]> samples = new ArrayDeque<>();
+
+    /**
+     * 每个从节点检查时的延迟（毫秒）
+     */
+    private final AtomicLongArray staleness;
+
+    /**
+     * 每个从节点的检查时间
+     */
+    private final AtomicLongArray checkedAt;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Disposable task;
+
+    public ReplicaLagMonitor(ReactiveRedisTemplate<?, ?> primary, List<T> replicas, Duration maxStaleness, Duration checkPeriod) {
+        this.primary = primary;
+        this.replicas = Lists.newArrayList(replicas);
+        this.maxStalenessMillis = maxStaleness.toMillis();
+        this.staleness = new AtomicLongArray(replicas.size());
+        this.checkedAt = new AtomicLongArray(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            staleness.set(i, Long.MAX_VALUE);
+        }
+        this.task = Flux.interval(Duration.ZERO, checkPeriod)
+                .onBackpressureDrop()
+                .concatMap(tick -> check().onErrorResume(e -> {
+                    log.warn("从节点延迟检查失败: {}", e.getMessage());
+                    return Mono.empty();
+                }))
+                .subscribe();
+    }
+
+    /**
+     * @return 延迟在允许范围内的从节点（轮询），没有时为空
+     */
+    public T select() {
+        long now = System.currentTimeMillis();
+        int size = replicas.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            if (getStaleness(index, now) <= maxStalenessMillis) {
+                return replicas.get(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 全部从节点
+     */
+    public List<T> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    /**
+     * @return 从节点当前的延迟上限（检查时的延迟 + 距离检查的时间）
+     */
+    private long getStaleness(int index, long now) {
+        long lag = staleness.get(index);
+        return lag == Long.MAX_VALUE ? lag : lag + now - checkedAt.get(index);
+    }
+
+    private Mono<Void> check() {
+        return info(primary)
+                .doOnNext(info -> sample(System.currentTimeMillis(), Long.parseLong(info.getProperty("master_repl_offset", "0"))))
+                .thenMany(Flux.range(0, replicas.size())
+                        .flatMap(index -> info(replicas.get(index))
+                                .doOnNext(info -> update(index, info))
+                                .onErrorResume(e -> {
+                                    staleness.set(index, Long.MAX_VALUE);
+                                    return Mono.empty();
+                                })))
+                .then();
+    }
+
+    private Mono<Properties> info(ReactiveRedisTemplate<?, ?> template) {
+        return template.createMono(connection -> connection.serverCommands().info("replication"));
+    }
+
+    private synchronized void sample(long time, long offset) {
+        samples.addFirst(new long[]{time, offset});
+        //只保留 maxStaleness 内的记录（至少保留最新的一条）
+        while (samples.size() > 1 && time - samples.peekLast()[0] > maxStalenessMillis) {
+            samples.removeLast();
+        }
+    }
+
+    private synchronized void update(int index, Properties info) {
+        long now = System.currentTimeMillis();
+        long lag = Long.MAX_VALUE;
+        if ("up".equals(info.getProperty("master_link_status"))) {
+            long offset = Long.parseLong(info.getProperty("slave_repl_offset", "-1"));
+            for (long[] sample : samples) {
+                if (sample[1] <= offset) {
+                    lag = now - sample[0];
+                    break;
+                }
+            }
+        }
+        //先更新延迟再更新时间，读取时只会高估延迟
+        staleness.set(index, lag);
+        checkedAt.set(index, now);
+    }
+
+    @Override
+    public void dispose() {
+        task.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return task.isDisposed();
+    }
+}
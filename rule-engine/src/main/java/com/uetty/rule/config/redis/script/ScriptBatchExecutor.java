@@ -0,0 +1,268 @@
+package com.uetty.rule.config.redis.script;
+
+import com.google.common.collect.Lists;
+import com.uetty.rule.config.redis.RuleLettuceConnectionFactory;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisScriptingAsyncCommands;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.codec.ByteBufferCodec;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lua脚本批量执行
+ * <p>
+ * 在时间窗口内（或达到数量上限时）把多个 EVALSHA 放在一次网络写出中发送（pipeline），
+ * 每个调用按自己的返回结果完成，单个调用失败不影响其他调用。
+ * 使用连接工厂的客户端（共用客户端资源和客户端选项）建立一个独立连接，关闭自动flush，由批次统一flush
+ */
+public class ScriptBatchExecutor implements AutoCloseable {
+
+    /**
+     * 默认时间窗口
+     */
+    public static final Duration DEFAULT_WINDOW = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(200));
+
+    /**
+     * 默认每批最大数量
+     */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /**
+     * 立即发送（不检查批次）
+     */
+    private static final long ANY_GENERATION = -1;
+
+    private final ReactiveRedisTemplate<?, ?> template;
+
+    /**
+     * 异步建立的连接（不阻塞创建线程），建立前加入的调用在连接建立后发送
+     */
+    private final CompletableFuture<? extends StatefulConnection<ByteBuffer, ByteBuffer>> connection;
+
+    private final CompletableFuture<RedisScriptingAsyncCommands<ByteBuffer, ByteBuffer>> async;
+
+    private final Duration window;
+
+    private final int maxBatch;
+
+    /**
+     * 当前批次
+     */
+    private List<ScriptCall> pending = Lists.newArrayList();
+
+    /**
+     * 批次编号，每发送一个批次加1，定时发送只发送自己的批次（数量达到上限时批次已经发送）
+     */
+    private long generation;
+
+    public ScriptBatchExecutor(ReactiveRedisTemplate<?, ?> template, RuleLettuceConnectionFactory connectionFactory) {
+        this(template, connectionFactory, DEFAULT_WINDOW, DEFAULT_MAX_BATCH);
+    }
+
+    public ScriptBatchExecutor(ReactiveRedisTemplate<?, ?> template, RuleLettuceConnectionFactory connectionFactory,
+                               Duration window, int maxBatch) {
+        Assert.isTrue(maxBatch > 0, "maxBatch must be greater than 0!");
+        AbstractRedisClient client = connectionFactory.getNativeClient();
+        Assert.state(client != null, "connectionFactory is not initialized!");
+        this.template = template;
+        this.window = window;
+        this.maxBatch = maxBatch;
+        if (client instanceof RedisClusterClient) {
+            //集群连接，EVALSHA 按第一个key的槽位发到对应节点，flush 时每个节点一次写出
+            CompletableFuture<StatefulRedisClusterConnection<ByteBuffer, ByteBuffer>> clusterConnection =
+                    ((RedisClusterClient) client).connectAsync(ByteBufferCodec.INSTANCE);
+            this.connection = clusterConnection;
+            this.async = clusterConnection.thenApply(this::disableAutoFlush)
+                    .<RedisScriptingAsyncCommands<ByteBuffer, ByteBuffer>>thenApply(StatefulRedisClusterConnection::async);
+        } else {
+            RedisURI redisURI = redisURI(connectionFactory);
+            CompletableFuture<StatefulRedisConnection<ByteBuffer, ByteBuffer>> redisConnection =
+                    ((RedisClient) client).connectAsync(ByteBufferCodec.INSTANCE, redisURI).toCompletableFuture();
+            this.connection = redisConnection;
+            this.async = redisConnection.thenApply(this::disableAutoFlush)
+                    .<RedisScriptingAsyncCommands<ByteBuffer, ByteBuffer>>thenApply(StatefulRedisConnection::async);
+        }
+    }
+
+    /**
+     * 独立连接，关闭自动flush，由批次统一flush
+     */
+    private <C extends StatefulConnection<ByteBuffer, ByteBuffer>> C disableAutoFlush(C connection) {
+        connection.setAutoFlushCommands(false);
+        return connection;
+    }
+
+    /**
+     * @return 和连接工厂相同的节点、库、密码、超时
+     */
+    private static RedisURI redisURI(RuleLettuceConnectionFactory connectionFactory) {
+        RedisURI.Builder builder = RedisURI.Builder.redis(connectionFactory.getHostName(), connectionFactory.getPort())
+                .withDatabase(connectionFactory.getDatabase())
+                .withTimeout(connectionFactory.getClientConfiguration().getCommandTimeout());
+        RedisURI redisURI = builder.build();
+        if (connectionFactory.getPassword() != null) {
+            redisURI.setPassword(connectionFactory.getPassword());
+        }
+        return redisURI;
+    }
+
+    /**
+     * 加入批次执行脚本
+     *
+     * @param scriptType  脚本类型
+     * @param returnType  返回类型
+     * @param numKeys     key数量
+     * @param keysAndArgs key和参数
+     * @return 执行结果
+     */
+    public <T> Mono<T> evalSha(ScriptConfig.ScriptType scriptType, ReturnType returnType, int numKeys, ByteBuffer... keysAndArgs) {
+        return Mono.<T>create(sink -> submit(new ScriptCall(scriptType, returnType, numKeys, keysAndArgs, sink)))
+                //只在脚本不存在时回退到普通调用（重新加载脚本），其他错误时脚本可能已经执行，不能重复执行
+                .onErrorResume(ScriptConfig::isNoScript, e -> ScriptConfig.<T>reload(template, scriptType, returnType, numKeys, keysAndArgs).next());
+    }
+
+    private void submit(ScriptCall call) {
+        boolean flushNow;
+        boolean schedule;
+        long batchGeneration;
+        synchronized (this) {
+            pending.add(call);
+            flushNow = pending.size() >= maxBatch;
+            schedule = pending.size() == 1;
+            batchGeneration = generation;
+        }
+        if (flushNow) {
+            flush(ANY_GENERATION);
+        } else if (schedule) {
+            Schedulers.parallel().schedule(() -> flush(batchGeneration), window.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 发送当前批次（一次flush）
+     *
+     * @param expectedGeneration 定时发送时为定时任务所属的批次（批次已经发送时不再发送下一个批次），立即发送时为 ANY_GENERATION
+     */
+    @SuppressWarnings("unchecked")
+    private void flush(long expectedGeneration) {
+        if (!async.isDone()) {
+            //连接建立后再发送
+            async.whenComplete((commands, e) -> flush(expectedGeneration));
+            return;
+        }
+        List<ScriptCall> batch;
+        synchronized (this) {
+            if (pending.isEmpty() || (expectedGeneration != ANY_GENERATION && expectedGeneration != generation)) {
+                return;
+            }
+            batch = pending;
+            pending = Lists.newArrayList();
+            generation++;
+            RedisScriptingAsyncCommands<ByteBuffer, ByteBuffer> commands;
+            try {
+                commands = async.join();
+            } catch (CompletionException e) {
+                batch.forEach(call -> call.sink.error(e.getCause()));
+                return;
+            }
+            for (ScriptCall call : batch) {
+                try {
+                    ByteBuffer[] keys = Arrays.copyOfRange(call.keysAndArgs, 0, call.numKeys);
+                    ByteBuffer[] args = Arrays.copyOfRange(call.keysAndArgs, call.numKeys, call.keysAndArgs.length);
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = keys[i].duplicate();
+                    }
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = args[i].duplicate();
+                    }
+                    ScriptConfig.invoked(call.scriptType);
+                    RedisFuture<Object> future = commands.evalsha(ScriptConfig.getScript(call.scriptType).getSha1(),
+                            outputType(call.returnType), keys, args);
+                    future.whenComplete((result, e) -> {
+                        if (e != null) {
+                            call.sink.error(e);
+                        } else {
+                            call.sink.success(result);
+                        }
+                    });
+                } catch (Exception e) {
+                    call.sink.error(e);
+                }
+            }
+            connection.join().flushCommands();
+        }
+    }
+
+    private static ScriptOutputType outputType(ReturnType returnType) {
+        switch (returnType) {
+            case BOOLEAN:
+                return ScriptOutputType.BOOLEAN;
+            case INTEGER:
+                return ScriptOutputType.INTEGER;
+            case STATUS:
+                return ScriptOutputType.STATUS;
+            case MULTI:
+                return ScriptOutputType.MULTI;
+            default:
+                return ScriptOutputType.VALUE;
+        }
+    }
+
+    /**
+     * 发送剩余的调用并关闭连接（客户端属于连接工厂，不关闭）
+     */
+    @Override
+    public void close() {
+        flush(ANY_GENERATION);
+        connection.whenComplete((c, e) -> {
+            if (c != null) {
+                c.close();
+            }
+        });
+    }
+
+    /**
+     * 等待发送的脚本调用
+     */
+    private static class ScriptCall {
+
+        private final ScriptConfig.ScriptType scriptType;
+
+        private final ReturnType returnType;
+
+        private final int numKeys;
+
+        private final ByteBuffer[] keysAndArgs;
+
+        @SuppressWarnings("rawtypes")
+        private final MonoSink sink;
+
+        ScriptCall(ScriptConfig.ScriptType scriptType, ReturnType returnType, int numKeys, ByteBuffer[] keysAndArgs, MonoSink<?> sink) {
+            this.scriptType = scriptType;
+            this.returnType = returnType;
+            this.numKeys = numKeys;
+            this.keysAndArgs = keysAndArgs;
+            this.sink = sink;
+        }
+    }
+}
@@ -1,53 +1,350 @@
 package com.uetty.rule.config.redis.script;
 
 import com.google.common.collect.Maps;
+import com.uetty.rule.config.redis.cluster.ClusterSlots;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.PostConstruct;
-import java.io.File;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+@Slf4j
 @Configuration
 public class ScriptConfig {
 
-    private static Map<String, DefaultRedisScript> SCRIPT_MAP = Maps.newHashMap();
+    /**
+     * 脚本名 - 脚本（热更新时整体替换单个脚本，调用方每次调用时获取，SHA1随之切换）
+     */
+    private static final ConcurrentMap<String, DefaultRedisScript> SCRIPT_MAP = Maps.newConcurrentMap();
+
+    /**
+     * 脚本调用次数
+     */
+    private static final ConcurrentMap<ScriptType, LongAdder> INVOKE_COUNT = Maps.newConcurrentMap();
+
+    private static final String LUA_SUFFIX = ".lua";
+
+    /**
+     * 文件变化后等待的时间，期间再次变化时重新计时（编辑器保存时会产生多次事件）
+     */
+    private static final long RELOAD_DELAY_MILLIS = 500;
 
     @Value("${spring.redis.luaPath}")
     private String luaPath;
 
     /**
-     * 初始化lua脚本
+     * 外部脚本目录，配置后覆盖classpath中的同名脚本，并监听文件变化热更新
+     */
+    @Value("${spring.redis.luaWatchPath:}")
+    private String luaWatchPath;
+
+    private WatchService watchService;
+
+    /**
+     * 热更新前用于校验脚本（SCRIPT LOAD）的 redisTemplate
+     */
+    @Autowired
+    private ObjectProvider<ReactiveRedisTemplate<?, ?>> templates;
+
+    private ScheduledExecutorService reloadExecutor;
+
+    /**
+     * 文件名 - 等待执行的更新
+     */
+    private final Map<String, ScheduledFuture<?>> pendingReloads = Maps.newConcurrentMap();
+
+    /**
+     * 初始化lua脚本（通过classpath匹配查找，打包成jar后同样可用）
      */
     @PostConstruct
-    public void initScript() {
-        String path = this.getClass().getResource(luaPath).getPath();
-        File file = new File(path);
-        if (file.isDirectory()) {
-            String[] luaFiles = file.list();
-            if (luaFiles!=null){
-                for (String name : luaFiles) {
-                    DefaultRedisScript redisScript = new DefaultRedisScript();
-                    redisScript.setLocation(new ClassPathResource(luaPath + name));
-                    SCRIPT_MAP.put(name.split("\\.")[0], redisScript);
+    public void initScript() throws IOException {
+        String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + StringUtils.trimLeadingCharacter(luaPath, '/') + "*" + LUA_SUFFIX;
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(pattern);
+        for (Resource resource : resources) {
+            putScript(resource.getFilename(), resource);
+        }
+        if (StringUtils.hasText(luaWatchPath)) {
+            Path watchPath = Paths.get(luaWatchPath);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(watchPath, "*" + LUA_SUFFIX)) {
+                for (Path file : files) {
+                    putScript(file.getFileName().toString(), new FileSystemResource(file.toFile()));
+                }
+            }
+            watch(watchPath);
+        }
+        //启动时检查所有脚本是否存在
+        for (ScriptType scriptType : ScriptType.values()) {
+            if (!SCRIPT_MAP.containsKey(scriptType.key)) {
+                throw new IllegalStateException("lua脚本不存在: " + scriptType.key + LUA_SUFFIX + " (" + pattern + ")");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 读取脚本内容并预先计算 SHA1
+     *
+     * @param fileName 文件名
+     * @param resource 脚本资源
+     */
+    private static void putScript(String fileName, Resource resource) throws IOException {
+        SCRIPT_MAP.put(scriptName(fileName), readScript(resource));
+    }
+
+    private static DefaultRedisScript readScript(Resource resource) throws IOException {
+        DefaultRedisScript redisScript = new DefaultRedisScript();
+        try (InputStream in = resource.getInputStream()) {
+            redisScript.setScriptText(StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+        redisScript.getSha1();
+        return redisScript;
+    }
+
+    private static String scriptName(String fileName) {
+        return fileName.substring(0, fileName.length() - LUA_SUFFIX.length());
+    }
+
+    /**
+     * 监听外部脚本目录，脚本新增或修改时（文件停止变化后）校验并替换
+     */
+    private void watch(Path watchPath) throws IOException {
+        watchService = watchPath.getFileSystem().newWatchService();
+        watchPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lua-script-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey watchKey = watchService.take();
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        Path file = watchPath.resolve((Path) event.context());
+                        String fileName = file.getFileName().toString();
+                        if (!fileName.endsWith(LUA_SUFFIX)) {
+                            continue;
+                        }
+                        ScheduledFuture<?> previous = pendingReloads.put(fileName, reloadExecutor.schedule(() -> {
+                            pendingReloads.remove(fileName);
+                            reload(fileName, file);
+                        }, RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+                        if (previous != null) {
+                            previous.cancel(false);
+                        }
+                    }
+                    watchKey.reset();
                 }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                //停止监听
             }
+        }, "lua-script-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 在redis上加载脚本（SCRIPT LOAD 会编译脚本），加载成功才替换，失败时继续使用原脚本
+     */
+    private void reload(String fileName, Path file) {
+        DefaultRedisScript script;
+        try {
+            script = readScript(new FileSystemResource(file.toFile()));
+        } catch (IOException e) {
+            log.error("lua脚本读取失败，继续使用原脚本: " + fileName, e);
+            return;
+        }
+        String name = scriptName(fileName);
+        DefaultRedisScript current = SCRIPT_MAP.get(name);
+        if (current != null && current.getSha1().equals(script.getSha1())) {
+            return;
         }
+        ReactiveRedisTemplate<?, ?> template = templates.stream().findFirst().orElse(null);
+        if (template == null) {
+            log.error("没有可以校验lua脚本的redis，继续使用原脚本: {}", fileName);
+            return;
+        }
+        scriptLoad(template, script).subscribe(sha1 -> {
+            SCRIPT_MAP.put(name, script);
+            log.info("lua脚本已更新: {}", fileName);
+        }, e -> log.error("lua脚本校验失败，继续使用原脚本: " + fileName, e));
     }
 
     public static <T> DefaultRedisScript<T> getScript(ScriptType scriptType) {
         return SCRIPT_MAP.get(scriptType.key);
     }
 
+    /**
+     * 预加载所有脚本（SCRIPT LOAD），启动和重新连接时调用
+     *
+     * @param template redis template
+     * @return 加载完成
+     */
+    public static Mono<Void> preload(ReactiveRedisTemplate<?, ?> template) {
+        return Flux.fromIterable(SCRIPT_MAP.values())
+                .flatMap(script -> scriptLoad(template, script))
+                .then();
+    }
+
+    /**
+     * 通过 SHA1 执行脚本（EVALSHA），脚本不存在（NOSCRIPT）时重新加载后再执行；
+     * 集群模式下 SCRIPT LOAD 不一定发到key所在的节点，改为 EVAL 执行（同时在该节点缓存脚本）
+     *
+     * @param template    redis template
+     * @param scriptType  脚本类型
+     * @param returnType  返回类型
+     * @param numKeys     key数量
+     * @param keysAndArgs key和参数
+     * @return 执行结果
+     */
+    public static <T> Flux<T> evalSha(ReactiveRedisTemplate<?, ?> template, ScriptType scriptType, ReturnType returnType,
+                                      int numKeys, ByteBuffer... keysAndArgs) {
+        DefaultRedisScript<?> script = getScript(scriptType);
+        Assert.notNull(script, "脚本不存在: " + scriptType.key);
+        invoked(scriptType);
+        return ScriptConfig.<T>evalSha(template, script, returnType, numKeys, keysAndArgs)
+                .onErrorResume(ScriptConfig::isNoScript, e -> reload(template, scriptType, returnType, numKeys, keysAndArgs));
+    }
+
+    /**
+     * 脚本不存在（NOSCRIPT）时重新加载后执行，不重复记录调用次数
+     *
+     * @return 执行结果
+     */
+    static <T> Flux<T> reload(ReactiveRedisTemplate<?, ?> template, ScriptType scriptType, ReturnType returnType,
+                              int numKeys, ByteBuffer... keysAndArgs) {
+        DefaultRedisScript<?> script = getScript(scriptType);
+        Counter.builder("redis.script.reload")
+                .tag("script", scriptType.key)
+                .register(Metrics.globalRegistry)
+                .increment();
+        if (ClusterSlots.isCluster(template)) {
+            return eval(template, script, returnType, numKeys, keysAndArgs);
+        }
+        return scriptLoad(template, script)
+                .thenMany(ScriptConfig.<T>evalSha(template, script, returnType, numKeys, keysAndArgs));
+    }
+
+    /**
+     * @return 每个脚本的调用次数
+     */
+    public static Map<String, Long> getInvokeCount() {
+        Map<String, Long> count = Maps.newHashMap();
+        INVOKE_COUNT.forEach((type, adder) -> count.put(type.key, adder.sum()));
+        return count;
+    }
+
+    private static <T> Flux<T> evalSha(ReactiveRedisTemplate<?, ?> template, DefaultRedisScript<?> script, ReturnType returnType,
+                                       int numKeys, ByteBuffer... keysAndArgs) {
+        //重试时需要重新读取参数，每次执行都复制一份
+        ByteBuffer[] args = new ByteBuffer[keysAndArgs.length];
+        for (int i = 0; i < keysAndArgs.length; i++) {
+            args[i] = keysAndArgs[i].duplicate();
+        }
+        return template.createFlux(connection -> connection.scriptingCommands()
+                .evalSha(script.getSha1(), returnType, numKeys, args));
+    }
+
+    private static <T> Flux<T> eval(ReactiveRedisTemplate<?, ?> template, DefaultRedisScript<?> script, ReturnType returnType,
+                                    int numKeys, ByteBuffer... keysAndArgs) {
+        ByteBuffer[] args = new ByteBuffer[keysAndArgs.length];
+        for (int i = 0; i < keysAndArgs.length; i++) {
+            args[i] = keysAndArgs[i].duplicate();
+        }
+        return template.createFlux(connection -> connection.scriptingCommands()
+                .eval(bytes(script.getScriptAsString()), returnType, numKeys, args));
+    }
+
+    private static Mono<String> scriptLoad(ReactiveRedisTemplate<?, ?> template, DefaultRedisScript<?> script) {
+        return template.createMono(connection -> connection.scriptingCommands().scriptLoad(bytes(script.getScriptAsString())));
+    }
+
+    static void invoked(ScriptType scriptType) {
+        INVOKE_COUNT.computeIfAbsent(scriptType, type -> {
+            LongAdder adder = new LongAdder();
+            Metrics.globalRegistry.more().counter("redis.script.invoke",
+                    Tags.of("script", type.key), adder, LongAdder::doubleValue);
+            return adder;
+        }).increment();
+    }
+
+    /**
+     * @return 是否为脚本不存在的异常
+     */
+    static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
     public enum ScriptType {
 
         HGET("hget"),
         GET_HASH_FROM_ZSET("getHashFromZset"),
         LOCK("lock"),
         UN_LOCK("unLock"),
-        SCHEDULE_LOCK("scheduleLock");
+        SCHEDULE_LOCK("scheduleLock"),
+        LOCK_ALL("lockAll"),
+        UN_LOCK_ALL("unLockAll"),
+        SCHEDULE_LOCK_ALL("scheduleLockAll"),
+        FENCING_TOKEN("fencingToken"),
+        PUT_CLASS_FENCE("putClassFence"),
+        TRY_SET_COUNT("trySetCount"),
+        COUNT_DOWN("countDown"),
+        BARRIER_AWAIT("barrierAwait"),
+        GET_HASH_FROM_ZSET_PAGE("getHashFromZsetPage"),
+        GET_HASH_FROM_ZSET_BY_SCORE("getHashFromZsetByScore"),
+        RANK_BY_SCORE("rankByScore"),
+        COMBINE_ZSET("combineZset"),
+        RECORD_EVENT("recordEvent"),
+        COUNT_EVENTS("countEvents"),
+        PUT_HASH_IF_ABSENT("putHashIfAbsent");
 
         private String key;
 
@@ -0,0 +1,45 @@
+package com.uetty.rule.config.redis.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * redis 值序列化格式（SPI）
+ * <p>
+ * 自定义格式在 META-INF/services/com.uetty.rule.config.redis.serializer.ClassSerializer 中声明，
+ * 启动时按格式标记注册，读取时根据数据第一个字节选择格式
+ */
+public interface ClassSerializer {
+
+    /**
+     * 标记 0 代表不写标记（json，兼容没有标记的旧数据），1~15 为内置格式和压缩保留，
+     * 自定义格式使用 16~31 的标记（json 的第一个字节不会是这些值）
+     *
+     * @return 格式标记
+     */
+    byte marker();
+
+    /**
+     * @param value 对象
+     * @return 序列化（不包含格式标记）
+     */
+    byte[] serialize(Object value) throws IOException;
+
+    /**
+     * 写入复用的缓冲区时调用，默认先序列化成数组再写入
+     *
+     * @param value 对象
+     * @param out   输出流（不包含格式标记）
+     */
+    default void serialize(Object value, OutputStream out) throws IOException {
+        out.write(serialize(value));
+    }
+
+    /**
+     * @param bytes  数据
+     * @param offset 开始位置（已跳过格式标记）
+     * @param length 长度
+     * @return 反序列化
+     */
+    Object deserialize(byte[] bytes, int offset, int length) throws IOException;
+}
@@ -0,0 +1,202 @@
+package com.uetty.rule.config.redis.serializer;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.uetty.cloud.utils.JacksonUtil;
+import com.uetty.rule.config.redis.annotation.RedisKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 序列化格式注册
+ */
+@Slf4j
+public final class ClassSerializers {
+
+    /**
+     * 格式标记 - 序列化
+     */
+    private static final ClassSerializer[] MARKERS = new ClassSerializer[32];
+
+    private static final Map<SerializerFormat, ClassSerializer> FORMATS = new EnumMap<>(SerializerFormat.class);
+
+    /**
+     * 类型 - @RedisKey 指定的格式
+     */
+    private static final Map<Class<?>, Optional<ClassSerializer>> CLASS_FORMATS = new ConcurrentHashMap<>();
+
+    /**
+     * 复用缓冲区的最大大小，超过后不再复用，避免线程长期持有大数组
+     */
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    /**
+     * 每个线程复用的写入缓冲区
+     */
+    private static final ThreadLocal<PooledOutputStream> BUFFERS = ThreadLocal.withInitial(PooledOutputStream::new);
+
+    static {
+        FORMATS.put(SerializerFormat.JSON, new JacksonClassSerializer(SerializerFormat.JSON.getMarker(), JacksonUtil.jacksonCode));
+        FORMATS.put(SerializerFormat.SMILE, new JacksonClassSerializer(SerializerFormat.SMILE.getMarker(), new SmileFactory()));
+        FORMATS.put(SerializerFormat.CBOR, new JacksonClassSerializer(SerializerFormat.CBOR.getMarker(), new CBORFactory()));
+        FORMATS.put(SerializerFormat.COMPACT, new CompactClassSerializer());
+        FORMATS.values().forEach(serializer -> MARKERS[serializer.marker()] = serializer);
+        for (ClassSerializer serializer : ServiceLoader.load(ClassSerializer.class)) {
+            register(serializer);
+        }
+    }
+
+    private ClassSerializers() {
+    }
+
+    /**
+     * @param serializer 自定义格式（标记 16~31）
+     */
+    public static synchronized void register(ClassSerializer serializer) {
+        int marker = serializer.marker();
+        Assert.isTrue(marker >= 16 && marker < MARKERS.length, "自定义格式标记必须在 16~31 之间: " + serializer.getClass().getName());
+        Assert.isNull(MARKERS[marker], "格式标记已存在: " + marker);
+        MARKERS[marker] = serializer;
+        log.info("注册 redis 序列化格式 {} : {}", marker, serializer.getClass().getName());
+    }
+
+    /**
+     * @param format 内置格式
+     * @return 序列化
+     */
+    public static ClassSerializer get(SerializerFormat format) {
+        Assert.isTrue(format != SerializerFormat.DEFAULT, "DEFAULT 没有对应的序列化格式");
+        return FORMATS.get(format);
+    }
+
+    /**
+     * @param clazz 类型
+     * @return @RedisKey 指定的格式，没有指定时为空
+     */
+    public static ClassSerializer forClass(Class<?> clazz) {
+        return CLASS_FORMATS.computeIfAbsent(clazz, key -> {
+            RedisKey redisKey = key.getAnnotation(RedisKey.class);
+            if (redisKey == null || redisKey.format() == SerializerFormat.DEFAULT) {
+                return Optional.empty();
+            }
+            return Optional.of(get(redisKey.format()));
+        }).orElse(null);
+    }
+
+    /**
+     * @return 序列化，非 json 格式第一个字节写入格式标记
+     */
+    public static byte[] write(ClassSerializer serializer, Object value) throws IOException {
+        return writeBuffer(serializer, value).array();
+    }
+
+    /**
+     * 先写入线程复用的缓冲区，最后只复制一次到大小正好的 ByteBuffer
+     *
+     * @return 序列化，非 json 格式第一个字节写入格式标记
+     */
+    public static ByteBuffer writeBuffer(ClassSerializer serializer, Object value) throws IOException {
+        return writeBuffer(serializer, value, null, null);
+    }
+
+    /**
+     * @param compressor 压缩（为空时不压缩）
+     * @param owner      统计压缩指标的类型（为空时取值的类型）
+     * @return 序列化，超过压缩阈值时压缩
+     */
+    public static ByteBuffer writeBuffer(ClassSerializer serializer, Object value, ValueCompressor compressor, Class<?> owner) throws IOException {
+        PooledOutputStream out = BUFFERS.get();
+        if (out.inUse) {
+            //序列化过程中再次序列化（如自定义格式内部调用），不复用
+            out = new PooledOutputStream();
+        }
+        out.inUse = true;
+        try {
+            if (serializer.marker() != 0) {
+                out.write(serializer.marker());
+            }
+            serializer.serialize(value, out);
+            if (compressor != null) {
+                ByteBuffer compressed = compressor.compress(out.buffer(), out.size(),
+                        owner != null ? owner : value == null ? null : value.getClass());
+                if (compressed != null) {
+                    return compressed;
+                }
+            }
+            return out.toByteBuffer();
+        } finally {
+            out.reset();
+            out.inUse = false;
+            if (out.capacity() > MAX_POOLED_SIZE) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    /**
+     * @return 按第一个字节的格式标记反序列化，没有标记时按 json 读取
+     */
+    public static Object read(byte[] bytes) throws IOException {
+        return read(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 有底层数组时直接读取数组，不复制
+     *
+     * @return 按第一个字节的格式标记反序列化，没有标记时按 json 读取
+     */
+    public static Object read(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            return read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return read(bytes);
+    }
+
+    private static Object read(byte[] bytes, int offset, int length) throws IOException {
+        int marker = bytes[offset];
+        if (marker == ValueCompressor.MARKER) {
+            byte[] decompressed = ValueCompressor.decompress(bytes, offset, length);
+            return read(decompressed, 0, decompressed.length);
+        }
+        if (marker > 0 && marker < MARKERS.length && MARKERS[marker] != null) {
+            return MARKERS[marker].deserialize(bytes, offset + 1, length - 1);
+        }
+        return MARKERS[0].deserialize(bytes, offset, length);
+    }
+
+    /**
+     * 可复用的输出流
+     */
+    private static class PooledOutputStream extends ByteArrayOutputStream {
+
+        private boolean inUse;
+
+        private PooledOutputStream() {
+            super(1024);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(buf, count));
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.uetty.rule.config.redis.serializer;
+
+import com.uetty.cloud.utils.JacksonTypeIds;
+import com.uetty.cloud.utils.JacksonUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制序列化
+ * <p>
+ * 对象按字段名排序后依次写入字段值，不写字段名，只写类型id（{@link JacksonTypeIds} 注册的id）和字段结构的指纹；
+ * 指纹不一致（类结构变化）时读取失败。没有注册类型id的对象、集合等其他类型按 json 写入，
+ * 读取时只创建注册过的类型，不按数据中的类名加载类
+ */
+public class CompactClassSerializer implements ClassSerializer {
+
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int FLOAT = 6;
+    private static final int STRING = 7;
+    private static final int SHORT = 8;
+    private static final int BYTE = 9;
+    private static final int CHAR = 10;
+    private static final int BIG_DECIMAL = 11;
+    private static final int BEAN = 12;
+    private static final int OTHER = 13;
+
+    /**
+     * 类结构
+     */
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte marker() {
+        return SerializerFormat.COMPACT.getMarker();
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        serialize(value, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void serialize(Object value, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        write(data, value, true);
+        data.flush();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes, int offset, int length) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+    }
+
+    private void write(DataOutputStream out, Object value, boolean root) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            writeVarLong(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, ((BigDecimal) value).toPlainString());
+        } else if (root && typeId(value.getClass()) > 0) {
+            Schema schema = schemas.computeIfAbsent(value.getClass(), Schema::new);
+            out.writeByte(BEAN);
+            writeVarLong(out, typeId(value.getClass()));
+            out.writeInt(schema.fingerprint);
+            try {
+                for (Field field : schema.fields) {
+                    write(out, field.get(value), false);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+        } else {
+            out.writeByte(OTHER);
+            byte[] json = JacksonUtil.jacksonCode.obj2Byte(value);
+            writeVarLong(out, json.length);
+            out.write(json);
+        }
+    }
+
+    private Object read(DataInputStream in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) readVarLong(in);
+            case LONG:
+                return readVarLong(in);
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case STRING:
+                return readString(in);
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BEAN:
+                return readBean(in);
+            case OTHER:
+                byte[] json = new byte[(int) readVarLong(in)];
+                in.readFully(json);
+                return JacksonUtil.jacksonCode.byte2Obj(json);
+            default:
+                throw new IOException("未知的数据类型: " + tag);
+        }
+    }
+
+    private Object readBean(DataInputStream in) throws IOException {
+        long typeId = readVarLong(in);
+        int fingerprint = in.readInt();
+        Class<?> clazz = typeId > 0 && typeId <= Integer.MAX_VALUE ? JacksonTypeIds.classOf((int) typeId) : null;
+        if (clazz == null || !isBean(clazz)) {
+            throw new IOException("未注册的类型id: " + typeId);
+        }
+        String className = clazz.getName();
+        Schema schema = schemas.computeIfAbsent(clazz, Schema::new);
+        if (schema.fingerprint != fingerprint) {
+            throw new IOException("类结构已变化，无法按紧凑格式读取: " + className);
+        }
+        try {
+            Object value = schema.clazz.getDeclaredConstructor().newInstance();
+            for (Field field : schema.fields) {
+                Object fieldValue = read(in);
+                if (fieldValue != null || !field.getType().isPrimitive()) {
+                    field.set(value, fieldValue);
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("创建对象失败: " + className, e);
+        }
+    }
+
+    /**
+     * @return 注册了类型id的普通对象的id，否则为 -1
+     */
+    private static int typeId(Class<?> clazz) {
+        return isBean(clazz) ? JacksonTypeIds.numericIdOf(clazz) : -1;
+    }
+
+    /**
+     * @return 有无参构造器、不是集合和数组的普通对象
+     */
+    private static boolean isBean(Class<?> clazz) {
+        if (clazz.isArray() || clazz.isEnum() || clazz.getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            clazz.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * zigzag 变长整数，小的数字只占一个字节
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    /**
+     * 类结构：字段按名称排序，指纹由字段名和类型计算
+     */
+    private static class Schema {
+
+        private final Class<?> clazz;
+
+        private final List<Field> fields = new ArrayList<>();
+
+        private final int fingerprint;
+
+        private Schema(Class<?> clazz) {
+            this.clazz = clazz;
+            for (Field field : clazz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            int hash = 1;
+            for (Field field : fields) {
+                hash = 31 * hash + (field.getName() + ":" + field.getType().getName()).hashCode();
+            }
+            this.fingerprint = hash;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.uetty.rule.config.redis.serializer;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * redis 多格式序列化
+ * <p>
+ * 写入时优先使用 @RedisKey 指定的格式，否则使用默认格式；读取时根据格式标记选择格式，可以读取不同格式混合的数据
+ */
+@AllArgsConstructor
+public class FormatRedisSerializer<T> implements RedisSerializer<T> {
+
+    private final @NonNull ClassSerializer serializer;
+
+    /**
+     * 压缩（为空时不压缩）
+     */
+    private final ValueCompressor compressor;
+
+    public FormatRedisSerializer(SerializerFormat format) {
+        this(format, null);
+    }
+
+    public FormatRedisSerializer(SerializerFormat format, ValueCompressor compressor) {
+        this(ClassSerializers.get(format), compressor);
+    }
+
+    @Override
+    public byte[] serialize(T t) throws SerializationException {
+        return write(t).array();
+    }
+
+    /**
+     * @return 直接读写 ByteBuffer（不经过 byte[] 中转）的序列化对
+     */
+    public SerializationPair<T> toSerializationPair() {
+        RedisElementReader<T> reader = this::read;
+        RedisElementWriter<T> writer = this::write;
+        return SerializationPair.just(reader, writer);
+    }
+
+    private ByteBuffer write(T t) {
+        ClassSerializer classSerializer = t == null ? null : ClassSerializers.forClass(t.getClass());
+        try {
+            return ClassSerializers.writeBuffer(classSerializer == null ? serializer : classSerializer, t, compressor, null);
+        } catch (IOException e) {
+            throw new SerializationException("序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasRemaining()) {
+            return null;
+        }
+        try {
+            return (T) ClassSerializers.read(buffer);
+        } catch (IOException e) {
+            throw new SerializationException("反序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            return (T) ClassSerializers.read(bytes);
+        } catch (IOException e) {
+            throw new SerializationException("反序列化失败: " + e.getMessage(), e);
+        }
+    }
+}
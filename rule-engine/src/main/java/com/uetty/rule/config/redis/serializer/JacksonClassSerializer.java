@@ -0,0 +1,43 @@
+package com.uetty.rule.config.redis.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.uetty.cloud.utils.JacksonUtil;
+import lombok.AllArgsConstructor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Jackson 序列化（json、Smile、CBOR），与 JacksonUtil.jacksonCode 配置相同
+ */
+@AllArgsConstructor
+public class JacksonClassSerializer implements ClassSerializer {
+
+    private final byte marker;
+
+    private final JacksonUtil jacksonUtil;
+
+    public JacksonClassSerializer(byte marker, JsonFactory factory) {
+        this(marker, JacksonUtil.jacksonCode(factory));
+    }
+
+    @Override
+    public byte marker() {
+        return marker;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws IOException {
+        return jacksonUtil.obj2Byte(value);
+    }
+
+    @Override
+    public void serialize(Object value, OutputStream out) throws IOException {
+        jacksonUtil.obj2Stream(value, out);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes, int offset, int length) throws IOException {
+        return jacksonUtil.byte2Obj(bytes, offset, length);
+    }
+}
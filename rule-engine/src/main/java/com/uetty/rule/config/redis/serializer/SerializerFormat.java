@@ -0,0 +1,29 @@
+package com.uetty.rule.config.redis.serializer;
+
+/**
+ * 内置序列化格式
+ */
+public enum SerializerFormat {
+
+    /**
+     * 使用 redisTemplate 的格式
+     */
+    DEFAULT((byte) -1),
+    JSON((byte) 0),
+    SMILE((byte) 1),
+    CBOR((byte) 2),
+    /**
+     * 按字段顺序写入的紧凑二进制（读写两端的类结构必须一致）
+     */
+    COMPACT((byte) 3);
+
+    private final byte marker;
+
+    SerializerFormat(byte marker) {
+        this.marker = marker;
+    }
+
+    public byte getMarker() {
+        return marker;
+    }
+}
@@ -0,0 +1,207 @@
+package com.uetty.rule.config.redis.serializer;
+
+import com.google.common.collect.Maps;
+import com.uetty.rule.config.redis.annotation.RedisKey;
+import io.micrometer.core.instrument.Metrics;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis 值压缩
+ * <p>
+ * 序列化后超过阈值的值才压缩，压缩后没有变小时保存原值。
+ * 格式：[压缩标记][算法][原长度 4字节][压缩数据]，没有字典时使用 LZ4，有字典时使用带预置字典的 Deflate（适合大量结构相似的小对象）。
+ * 读取不依赖配置，字典通过 {@link #registerDictionary(byte[])} 注册后按 Deflate 数据中的字典校验值查找
+ */
+public class ValueCompressor {
+
+    /**
+     * 压缩标记（写在数据第一个字节）
+     */
+    public static final byte MARKER = 4;
+
+    private static final byte LZ4 = 1;
+
+    private static final byte DEFLATE = 2;
+
+    private static final int HEADER_LENGTH = 6;
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    /**
+     * 字典校验值 - 字典
+     */
+    private static final Map<Long, byte[]> DICTIONARIES = Maps.newConcurrentMap();
+
+    /**
+     * 类型 - 统计的key模式
+     */
+    private static final Map<Class<?>, String> PATTERNS = Maps.newConcurrentMap();
+
+    /**
+     * 压缩阈值（字节）
+     */
+    private final int threshold;
+
+    /**
+     * 预置字典
+     */
+    private final byte[] dictionary;
+
+    public ValueCompressor(int threshold) {
+        this(threshold, null);
+    }
+
+    public ValueCompressor(int threshold, byte[] dictionary) {
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+        if (dictionary != null) {
+            registerDictionary(dictionary);
+        }
+    }
+
+    /**
+     * @param dictionary 读取使用的字典（写入端更换字典后，旧字典仍需注册才能读取旧数据）
+     */
+    public static void registerDictionary(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        DICTIONARIES.put(adler32.getValue(), dictionary);
+    }
+
+    /**
+     * @param src    序列化数据
+     * @param length 数据长度
+     * @param type   值类型（按 @RedisKey 统计）
+     * @return 压缩数据，没有超过阈值或压缩后没有变小时为空
+     */
+    public ByteBuffer compress(byte[] src, int length, Class<?> type) {
+        if (length < threshold) {
+            return null;
+        }
+        String pattern = pattern(type);
+        long start = System.nanoTime();
+        byte[] compressed = dictionary == null ? lz4(src, length) : deflate(src, length);
+        Metrics.timer("redis.compression.time", "pattern", pattern).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (compressed.length >= length) {
+            Metrics.counter("redis.compression.skipped", "pattern", pattern).increment();
+            return null;
+        }
+        Metrics.summary("redis.compression.ratio", "pattern", pattern).record((double) compressed.length / length);
+        return ByteBuffer.wrap(compressed);
+    }
+
+    private static byte[] lz4(byte[] src, int length) {
+        LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+        byte[] dest = new byte[HEADER_LENGTH + compressor.maxCompressedLength(length)];
+        int size = compressor.compress(src, 0, length, dest, HEADER_LENGTH, dest.length - HEADER_LENGTH);
+        writeHeader(dest, LZ4, length);
+        byte[] result = new byte[HEADER_LENGTH + size];
+        System.arraycopy(dest, 0, result, 0, result.length);
+        return result;
+    }
+
+    private byte[] deflate(byte[] src, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(src, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + HEADER_LENGTH);
+            byte[] header = new byte[HEADER_LENGTH];
+            writeHeader(header, DEFLATE, length);
+            out.write(header, 0, HEADER_LENGTH);
+            byte[] buffer = new byte[Math.min(length, 8192)];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeHeader(byte[] dest, byte algorithm, int length) {
+        dest[0] = MARKER;
+        dest[1] = algorithm;
+        dest[2] = (byte) (length >>> 24);
+        dest[3] = (byte) (length >>> 16);
+        dest[4] = (byte) (length >>> 8);
+        dest[5] = (byte) length;
+    }
+
+    /**
+     * @param bytes  数据
+     * @param offset 开始位置（压缩标记所在位置）
+     * @param length 长度
+     * @return 解压后的数据
+     */
+    public static byte[] decompress(byte[] bytes, int offset, int length) throws IOException {
+        if (length < HEADER_LENGTH) {
+            throw new IOException("压缩数据格式错误");
+        }
+        byte algorithm = bytes[offset + 1];
+        int originalLength = ((bytes[offset + 2] & 0xFF) << 24) | ((bytes[offset + 3] & 0xFF) << 16)
+                | ((bytes[offset + 4] & 0xFF) << 8) | (bytes[offset + 5] & 0xFF);
+        byte[] dest = new byte[originalLength];
+        if (algorithm == LZ4) {
+            LZ4FastDecompressor decompressor = LZ4_FACTORY.fastDecompressor();
+            decompressor.decompress(bytes, offset + HEADER_LENGTH, dest, 0, originalLength);
+            return dest;
+        }
+        if (algorithm == DEFLATE) {
+            inflate(bytes, offset + HEADER_LENGTH, length - HEADER_LENGTH, dest);
+            return dest;
+        }
+        throw new IOException("未知的压缩算法: " + algorithm);
+    }
+
+    private static void inflate(byte[] bytes, int offset, int length, byte[] dest) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            int size = 0;
+            while (size < dest.length && !inflater.finished()) {
+                int n = inflater.inflate(dest, size, dest.length - size);
+                if (n == 0 && inflater.needsDictionary()) {
+                    byte[] dictionary = DICTIONARIES.get((long) inflater.getAdler() & 0xFFFFFFFFL);
+                    if (dictionary == null) {
+                        throw new IOException("压缩字典没有注册: " + Long.toHexString(inflater.getAdler() & 0xFFFFFFFFL));
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("压缩数据不完整");
+                }
+                size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据格式错误", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return 统计的key模式（@RedisKey 的 key，没有注解时为类名）
+     */
+    private static String pattern(Class<?> type) {
+        if (type == null) {
+            return "unknown";
+        }
+        return PATTERNS.computeIfAbsent(type, clazz -> {
+            RedisKey redisKey = clazz.getAnnotation(RedisKey.class);
+            return redisKey == null ? clazz.getSimpleName() : redisKey.value();
+        });
+    }
+}
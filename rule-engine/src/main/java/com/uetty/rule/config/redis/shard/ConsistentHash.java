@@ -0,0 +1,69 @@
+package com.uetty.rule.config.redis.shard;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一致性hash环（不可变，增加节点时创建新的环）
+ * <p>
+ * 每个节点在环上放置 virtualNodes 个虚拟节点，增加一个节点时只有约 1/n 的key改变归属
+ */
+public class ConsistentHash<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    private final Map<String, T> nodes;
+
+    private final int virtualNodes;
+
+    /**
+     * @param nodes        节点id - 节点（节点id决定在环上的位置，重启后需要保持不变）
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ConsistentHash(Map<String, T> nodes, int virtualNodes) {
+        Assert.notEmpty(nodes, "nodes must not be empty!");
+        Assert.isTrue(virtualNodes > 0, "virtualNodes must be greater than 0!");
+        this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+        this.virtualNodes = virtualNodes;
+        nodes.forEach((id, node) -> {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(id + "#" + i), node);
+            }
+        });
+    }
+
+    /**
+     * @return key 所属的节点（环上顺时针的第一个虚拟节点）
+     */
+    public T get(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * @return 增加节点后的新环
+     */
+    public ConsistentHash<T> with(String id, T node) {
+        Assert.isTrue(!nodes.containsKey(id), "节点已存在: " + id);
+        Map<String, T> added = new LinkedHashMap<>(nodes);
+        added.put(id, node);
+        return new ConsistentHash<>(added, virtualNodes);
+    }
+
+    public Map<String, T> getNodes() {
+        return nodes;
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,140 @@
+package com.uetty.rule.config.redis.shard;
+
+import com.google.common.collect.Sets;
+import com.uetty.rule.config.redis.RedisConfig;
+import com.uetty.rule.config.redis.annotation.RedisKey;
+import com.uetty.rule.config.redis.operations.ReactiveClassOperations;
+import com.uetty.rule.config.redis.operations.impl.ReactiveClassOperationsImpl;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 按 @RedisKey.redisTemplate 选择 redisTemplate
+ * <p>
+ * redisTemplate 为分片组名称时按主键一致性hash选择分片，否则为 redisTemplate 的 bean 名称
+ */
+@RequiredArgsConstructor
+public class RedisTemplateRouter implements DisposableBean {
+
+    private final @NonNull BeanFactory beanFactory;
+
+    /**
+     * 分片组名称 - 分片组
+     */
+    private final @NonNull Map<String, ShardGroup> shardGroups;
+
+    /**
+     * 根据节点配置创建分片的 redisTemplate（增加分片时使用）
+     */
+    private final @NonNull Function<RedisConfig, ClassReactiveRedisTemplate<?, ?>> shardFactory;
+
+    /**
+     * 分片对象类型 - 对象操作（每个类型只创建一次），增加分片时迁移使用过的分片对象
+     */
+    private final ConcurrentMap<Class<?>, ShardedClassOperations<?>> shardedOperations = new ConcurrentHashMap<>();
+
+    /**
+     * @param clazz 对象类型（不能是分片的对象）
+     * @return 对象使用的 redisTemplate
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> ClassReactiveRedisTemplate<K, V> getTemplate(Class<?> clazz) {
+        String name = getRedisKey(clazz).redisTemplate();
+        Assert.isTrue(!shardGroups.containsKey(name), "分片的对象需要按主键选择 redisTemplate: " + clazz.getName());
+        return beanFactory.getBean(name, ClassReactiveRedisTemplate.class);
+    }
+
+    /**
+     * @param clazz   对象类型
+     * @param hashKey 对象或主键值
+     * @return 读取对象使用的 redisTemplate
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> ClassReactiveRedisTemplate<K, V> getTemplate(Class<?> clazz, Object hashKey) {
+        ShardGroup shardGroup = shardGroups.get(getRedisKey(clazz).redisTemplate());
+        if (shardGroup == null) {
+            return getTemplate(clazz);
+        }
+        return (ClassReactiveRedisTemplate<K, V>) shardGroup.readRoute(ReactiveClassOperationsImpl.primaryKey(hashKey));
+    }
+
+    /**
+     * @param clazz 对象类型
+     * @return 对象操作（分片的对象按主键选择分片）
+     */
+    @SuppressWarnings("unchecked")
+    public <HV> ReactiveClassOperations<String, String, HV> opsForClass(Class<HV> clazz) {
+        ShardGroup shardGroup = shardGroups.get(getRedisKey(clazz).redisTemplate());
+        if (shardGroup == null) {
+            return (ReactiveClassOperations<String, String, HV>) (ReactiveClassOperations<?, ?, ?>) getTemplate(clazz).opsForClass();
+        }
+        return (ReactiveClassOperations<String, String, HV>) shardedOperations.computeIfAbsent(clazz,
+                key -> new ShardedClassOperations<HV>(shardGroup));
+    }
+
+    /**
+     * @return 分片组
+     */
+    public ShardGroup getShardGroup(String name) {
+        ShardGroup shardGroup = shardGroups.get(name);
+        Assert.notNull(shardGroup, "分片组不存在: " + name);
+        return shardGroup;
+    }
+
+    /**
+     * 增加分片并迁移数据（迁移使用过的分片对象和 classes）
+     * <p>
+     * 运行时增加的分片只保存在内存中，重启后按配置重建hash环：
+     * 需要同时把节点加入配置 spring.redis.rule.shards.&lt;name&gt;.nodes，否则重启后该分片上的数据不再被读取
+     *
+     * @param name    分片组名称
+     * @param node    新节点
+     * @param classes 需要迁移的对象类型
+     * @return 迁移的属性数量
+     */
+    public Mono<Long> addShard(String name, RedisConfig node, Class<?>... classes) {
+        ShardGroup shardGroup = getShardGroup(name);
+        Set<Class<?>> migrate = Sets.newHashSet(shardedOperations.keySet());
+        migrate.addAll(Arrays.asList(classes));
+        Set<String> hashKeys = migrate.stream()
+                .map(this::getRedisKey)
+                .filter(redisKey -> name.equals(redisKey.redisTemplate()))
+                .map(RedisKey::value)
+                .collect(Collectors.toSet());
+        return shardGroup.addShard(nodeId(node), shardFactory.apply(node), hashKeys);
+    }
+
+    /**
+     * @return 节点id（决定节点在hash环上的位置）
+     */
+    public static String nodeId(RedisConfig node) {
+        return node.getHost() + ":" + node.getPort() + "/" + (node.getDbIndex() == null ? 0 : node.getDbIndex());
+    }
+
+    /**
+     * 分片的 redisTemplate 不是 bean，在这里关闭
+     */
+    @Override
+    public void destroy() {
+        shardGroups.values().forEach(shardGroup -> shardGroup.getShards().forEach(ClassReactiveRedisTemplate::destroy));
+    }
+
+    private RedisKey getRedisKey(Class<?> clazz) {
+        RedisKey redisKey = clazz.getAnnotation(RedisKey.class);
+        Assert.notNull(redisKey, "对象没有 @RedisKey 注解: " + clazz.getName());
+        return redisKey;
+    }
+}
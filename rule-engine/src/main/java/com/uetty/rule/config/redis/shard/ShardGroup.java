@@ -0,0 +1,283 @@
+package com.uetty.rule.config.redis.shard;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.uetty.rule.config.redis.operations.impl.ReactiveClassOperationsImpl;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 分片组：多个独立的redis实例，按对象主键一致性hash选择实例（每个实例上的对象hash使用相同的key）
+ * <p>
+ * 增加分片时先进入迁移状态：写入同时写新旧两个归属节点，读取仍从旧的归属节点读取；
+ * 把归属改变的属性复制到新节点（只写入不存在的属性，不覆盖迁移期间的新写入），
+ * 复制完成后读写都切换到新的归属节点，再删除旧节点上已经迁移的属性
+ */
+@Slf4j
+public class ShardGroup {
+
+    private static final String CLASS = "@class";
+
+    /**
+     * 迁移时每批的属性数量
+     */
+    private static final int BATCH = 500;
+
+    @Getter
+    private final String name;
+
+    /**
+     * 当前和迁移前的hash环，整体替换（读取到的两个环总是同一时刻的状态）
+     */
+    private volatile Rings rings;
+
+    /**
+     * @param name         分片组名称（@RedisKey.redisTemplate）
+     * @param shards       节点id - redisTemplate
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ShardGroup(String name, Map<String, ClassReactiveRedisTemplate<?, ?>> shards, int virtualNodes) {
+        this.name = name;
+        this.rings = new Rings(new ConsistentHash<>(shards, virtualNodes), null);
+    }
+
+    /**
+     * @return 全部分片
+     */
+    public Collection<ClassReactiveRedisTemplate<?, ?>> getShards() {
+        return rings.current.getNodes().values();
+    }
+
+    /**
+     * @return 是否正在迁移
+     */
+    public boolean isRebalancing() {
+        return rings.previous != null;
+    }
+
+    /**
+     * @return 读取主键使用的分片（迁移时为旧的归属节点）
+     */
+    public ClassReactiveRedisTemplate<?, ?> readRoute(String primaryKey) {
+        Rings rings = this.rings;
+        return (rings.previous == null ? rings.current : rings.previous).get(primaryKey);
+    }
+
+    /**
+     * @return 写入主键使用的分片（迁移时新旧归属节点都写入）
+     */
+    public Set<ClassReactiveRedisTemplate<?, ?>> writeRoutes(String primaryKey) {
+        Rings rings = this.rings;
+        ClassReactiveRedisTemplate<?, ?> owner = rings.current.get(primaryKey);
+        if (rings.previous == null) {
+            return Collections.singleton(owner);
+        }
+        Set<ClassReactiveRedisTemplate<?, ?>> owners = Sets.newLinkedHashSet();
+        owners.add(owner);
+        owners.add(rings.previous.get(primaryKey));
+        return owners;
+    }
+
+    /**
+     * 增加分片并迁移数据（只修改内存中的hash环，不持久化）
+     *
+     * @param id       节点id
+     * @param shard    新分片
+     * @param hashKeys 需要迁移的对象hash（@RedisKey.value）
+     * @return 迁移的属性数量
+     */
+    public Mono<Long> addShard(String id, ClassReactiveRedisTemplate<?, ?> shard, Collection<String> hashKeys) {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                Rings rings = this.rings;
+                Assert.state(rings.previous == null, "分片组正在迁移: " + name);
+                //新旧两个环同时切换，切换后的写入同时写到新旧节点
+                this.rings = new Rings(rings.current.with(id, shard), rings.current);
+            }
+            log.info("分片组 {} 增加分片 {}，开始迁移", name, id);
+            log.warn("分片组 {} 运行时增加的分片 {} 不会持久化，重启前请加入配置 spring.redis.rule.shards.{}.nodes", name, id, name);
+            return rebalance(hashKeys);
+        });
+    }
+
+    /**
+     * 执行（或在失败后重新执行）迁移，不在迁移状态时直接返回
+     *
+     * @param hashKeys 需要迁移的对象hash
+     * @return 迁移的属性数量
+     */
+    public Mono<Long> rebalance(Collection<String> hashKeys) {
+        return Mono.defer(() -> {
+            Rings rings = this.rings;
+            ConsistentHash<ClassReactiveRedisTemplate<?, ?>> old = rings.previous;
+            if (old == null) {
+                return Mono.just(0L);
+            }
+            ConsistentHash<ClassReactiveRedisTemplate<?, ?>> ring = rings.current;
+            return Flux.fromIterable(old.getNodes().values())
+                    .concatMap(source -> Flux.fromIterable(hashKeys).concatMap(hashKey -> copy(ring, source, hashKey)))
+                    .reduce(0L, Long::sum)
+                    .flatMap(moved -> {
+                        synchronized (this) {
+                            if (this.rings == rings) {
+                                this.rings = new Rings(ring, null);
+                            }
+                        }
+                        log.info("分片组 {} 迁移完成，迁移属性数量: {}", name, moved);
+                        return Flux.fromIterable(old.getNodes().values())
+                                .concatMap(source -> Flux.fromIterable(hashKeys).concatMap(hashKey -> cleanup(ring, source, hashKey)))
+                                .then(Mono.just(moved));
+                    })
+                    .doOnError(e -> log.error("分片组 " + name + " 迁移失败，重新执行 rebalance 继续迁移", e));
+        });
+    }
+
+    /**
+     * 把 source 上归属改变的属性复制到新的归属节点
+     */
+    private Mono<Long> copy(ConsistentHash<ClassReactiveRedisTemplate<?, ?>> ring, ClassReactiveRedisTemplate<?, ?> source, String hashKey) {
+        ByteBuffer rawHashKey = bytes(hashKey);
+        return source.createMono(connection -> connection.hashCommands().hGet(rawHashKey.duplicate(), bytes(CLASS)))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMapMany(className -> scan(source, rawHashKey)
+                        .filter(entry -> ring.get(primaryKey(entry.getKey())) != source)
+                        .groupBy(entry -> ring.get(primaryKey(entry.getKey())))
+                        .flatMap(group -> group.buffer(BATCH)
+                                .concatMap(batch -> withFencingTokens(source, rawHashKey, batch)
+                                        .flatMap(entries -> putIfAbsent(group.key(), rawHashKey, entries, className.orElse(null)))
+                                        .thenReturn((long) batch.size()))))
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * @return 属性加上所属对象的写入令牌（令牌不作为属性扫描，跟随对象迁移）
+     */
+    private Mono<List<Map.Entry<ByteBuffer, ByteBuffer>>> withFencingTokens(ClassReactiveRedisTemplate<?, ?> source, ByteBuffer rawHashKey,
+                                                                             List<Map.Entry<ByteBuffer, ByteBuffer>> batch) {
+        List<ByteBuffer> fences = fencingTokenFields(Lists.transform(batch, Map.Entry::getKey));
+        return source.createMono(connection -> connection.hashCommands().hMGet(rawHashKey.duplicate(), Lists.transform(fences, ByteBuffer::duplicate)))
+                .map(tokens -> {
+                    List<Map.Entry<ByteBuffer, ByteBuffer>> entries = Lists.newArrayList(batch);
+                    for (int i = 0; i < fences.size(); i++) {
+                        ByteBuffer token = tokens.get(i);
+                        if (token != null && token.hasRemaining()) {
+                            entries.add(new AbstractMap.SimpleImmutableEntry<>(fences.get(i), token));
+                        }
+                    }
+                    return entries;
+                })
+                .defaultIfEmpty(batch);
+    }
+
+    private Mono<Long> putIfAbsent(ClassReactiveRedisTemplate<?, ?> target, ByteBuffer rawHashKey,
+                                   List<Map.Entry<ByteBuffer, ByteBuffer>> batch, ByteBuffer className) {
+        List<ByteBuffer> keysAndArgs = Lists.newArrayListWithCapacity(batch.size() * 2 + 3);
+        keysAndArgs.add(rawHashKey);
+        batch.forEach(entry -> {
+            keysAndArgs.add(entry.getKey());
+            keysAndArgs.add(entry.getValue());
+        });
+        if (className != null) {
+            keysAndArgs.add(bytes(CLASS));
+            keysAndArgs.add(className);
+        }
+        return ScriptConfig.<Long>evalSha(target, ScriptConfig.ScriptType.PUT_HASH_IF_ABSENT, ReturnType.INTEGER, 1,
+                keysAndArgs.toArray(new ByteBuffer[0])).next();
+    }
+
+    /**
+     * 删除 source 上已经不属于它的属性
+     */
+    private Mono<Long> cleanup(ConsistentHash<ClassReactiveRedisTemplate<?, ?>> ring, ClassReactiveRedisTemplate<?, ?> source, String hashKey) {
+        ByteBuffer rawHashKey = bytes(hashKey);
+        return scan(source, rawHashKey)
+                .filter(entry -> ring.get(primaryKey(entry.getKey())) != source)
+                .map(Map.Entry::getKey)
+                .buffer(BATCH)
+                .map(fields -> {
+                    List<ByteBuffer> deleted = Lists.newArrayList(fields);
+                    deleted.addAll(fencingTokenFields(fields));
+                    return deleted;
+                })
+                .concatMap(fields -> source.createMono(connection -> connection.hashCommands().hDel(rawHashKey.duplicate(), fields)))
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * @return 对象属性（不包含类名和写入令牌）
+     */
+    private Flux<Map.Entry<ByteBuffer, ByteBuffer>> scan(ClassReactiveRedisTemplate<?, ?> source, ByteBuffer rawHashKey) {
+        return source.createFlux(connection -> connection.hashCommands()
+                .hScan(rawHashKey.duplicate(), ScanOptions.scanOptions().count(BATCH).build()))
+                .filter(entry -> {
+                    String field = string(entry.getKey());
+                    return !CLASS.equals(field) && !field.endsWith(":" + ReactiveClassOperationsImpl.FENCING_TOKEN);
+                });
+    }
+
+    /**
+     * @param fields 主键:属性名
+     * @return 属性所属对象的写入令牌属性名
+     */
+    private static List<ByteBuffer> fencingTokenFields(List<ByteBuffer> fields) {
+        Set<String> primaryKeys = Sets.newLinkedHashSet();
+        fields.forEach(field -> primaryKeys.add(primaryKey(field)));
+        List<ByteBuffer> fences = Lists.newArrayListWithCapacity(primaryKeys.size());
+        primaryKeys.forEach(primaryKey -> fences.add(bytes(ReactiveClassOperationsImpl.fencingTokenField(primaryKey))));
+        return fences;
+    }
+
+    /**
+     * @param field 主键:属性名
+     * @return 主键
+     */
+    private static String primaryKey(ByteBuffer field) {
+        String name = string(field);
+        int index = name.lastIndexOf(':');
+        return index < 0 ? name : name.substring(0, index);
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer value) {
+        return StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
+
+    /**
+     * 当前的hash环和迁移前的hash环
+     */
+    private static final class Rings {
+
+        private final ConsistentHash<ClassReactiveRedisTemplate<?, ?>> current;
+
+        /**
+         * 迁移前的hash环，不在迁移时为空
+         */
+        private final ConsistentHash<ClassReactiveRedisTemplate<?, ?>> previous;
+
+        Rings(ConsistentHash<ClassReactiveRedisTemplate<?, ?>> current, ConsistentHash<ClassReactiveRedisTemplate<?, ?>> previous) {
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.uetty.rule.config.redis.shard;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.uetty.rule.config.redis.operations.ReactiveClassOperations;
+import com.uetty.rule.config.redis.operations.impl.ReactiveClassOperationsImpl;
+import com.uetty.rule.config.redis.template.ClassReactiveRedisTemplate;
+import com.uetty.rule.utils.FunctionCollection;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * 分片的对象操作，按主键选择分片后使用分片的对象操作
+ */
+@RequiredArgsConstructor
+@SuppressWarnings({"unchecked", "varargs"})
+public class ShardedClassOperations<HV> implements ReactiveClassOperations<String, String, HV> {
+
+    private final @NonNull ShardGroup shardGroup;
+
+    @Override
+    public Mono<Boolean> putClass(HV... values) {
+        return putClass(Arrays.asList(values));
+    }
+
+    @Override
+    public Mono<Boolean> putClass(Collection<HV> values) {
+        return putClass(null, values);
+    }
+
+    @Override
+    public Mono<Boolean> putClass(String key, HV... values) {
+        return putClass(key, Arrays.asList(values));
+    }
+
+    @Override
+    public Mono<Boolean> putClass(String key, Collection<HV> values) {
+        return write(values, (operations, shardValues) -> operations.putClass(key, shardValues));
+    }
+
+    @Override
+    public Mono<Boolean> putClassFenced(String key, long fencingToken, Collection<HV> values) {
+        return write(values, (operations, shardValues) -> operations.putClassFenced(key, fencingToken, shardValues));
+    }
+
+    @Override
+    public Mono<HV> getClass(String key, FunctionCollection columns, Object hashKey) {
+        Assert.notNull(hashKey, "hashKey must not be null!");
+        return operations(shardGroup.readRoute(ReactiveClassOperationsImpl.primaryKey(hashKey)))
+                .getClass(key, columns, hashKey);
+    }
+
+    @Override
+    public Mono<List<HV>> getClass(String key, FunctionCollection columns, Collection<HV> hashKey) {
+        Assert.notEmpty(hashKey, "hashKey must not be null!");
+        Map<ClassReactiveRedisTemplate<?, ?>, List<HV>> shards = Maps.newLinkedHashMap();
+        hashKey.forEach(value -> shards.computeIfAbsent(shardGroup.readRoute(ReactiveClassOperationsImpl.primaryKey(value)),
+                shard -> Lists.newArrayList()).add(value));
+        return Flux.fromIterable(shards.entrySet())
+                .flatMapSequential(entry -> operations(entry.getKey()).getClass(key, columns, entry.getValue()))
+                .collectList()
+                .map(lists -> {
+                    List<HV> values = Lists.newArrayList();
+                    lists.forEach(values::addAll);
+                    return values;
+                });
+    }
+
+    /**
+     * 按主键分组后写入各个分片（迁移时同时写入新旧分片）
+     */
+    private Mono<Boolean> write(Collection<HV> values, BiFunction<ReactiveClassOperations<String, String, HV>, List<HV>, Mono<Boolean>> write) {
+        Assert.notEmpty(values, "values must not be empty!");
+        Map<ClassReactiveRedisTemplate<?, ?>, List<HV>> shards = Maps.newLinkedHashMap();
+        for (HV value : values) {
+            shardGroup.writeRoutes(ReactiveClassOperationsImpl.primaryKey(value))
+                    .forEach(shard -> shards.computeIfAbsent(shard, key -> Lists.newArrayList()).add(value));
+        }
+        return Flux.fromIterable(shards.entrySet())
+                .flatMap(entry -> write.apply(operations(entry.getKey()), entry.getValue()))
+                .all(Boolean::booleanValue);
+    }
+
+    private ReactiveClassOperations<String, String, HV> operations(ClassReactiveRedisTemplate<?, ?> shard) {
+        return (ReactiveClassOperations<String, String, HV>) (ReactiveClassOperations<?, ?, ?>) shard.opsForClass();
+    }
+}
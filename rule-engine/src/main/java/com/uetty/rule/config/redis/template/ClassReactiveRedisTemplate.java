@@ -1,36 +1,109 @@
 package com.uetty.rule.config.redis.template;
 
-import com.uetty.rule.config.redis.JacksonRedisSerializer;
+import com.google.common.collect.Lists;
+import com.uetty.rule.config.redis.RuleLettuceConnectionFactory;
+import com.uetty.rule.config.redis.lock.LockMetrics;
+import com.uetty.rule.config.redis.operations.ReactiveBarrierOperations;
 import com.uetty.rule.config.redis.operations.ReactiveClassOperations;
+import com.uetty.rule.config.redis.operations.ReactiveCountDownLatchOperations;
 import com.uetty.rule.config.redis.operations.ReactiveLockOperations;
 import com.uetty.rule.config.redis.operations.ReactiveLuaOperations;
+import com.uetty.rule.config.redis.operations.impl.ReactiveBarrierOperationsImpl;
 import com.uetty.rule.config.redis.operations.impl.ReactiveClassOperationsImpl;
+import com.uetty.rule.config.redis.operations.impl.ReactiveCountDownLatchOperationsImpl;
 import com.uetty.rule.config.redis.operations.impl.ReactiveLockOperationsImpl;
 import com.uetty.rule.config.redis.operations.impl.ReactiveLuaOperationsImpl;
+import com.uetty.rule.config.redis.replica.ReadPreference;
+import com.uetty.rule.config.redis.replica.ReplicaLagMonitor;
+import com.uetty.rule.config.redis.script.ScriptBatchExecutor;
+import com.uetty.rule.config.redis.serializer.FormatRedisSerializer;
+import com.uetty.rule.config.redis.serializer.SerializerFormat;
+import com.uetty.rule.config.redis.serializer.ValueCompressor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
 
-import java.util.UUID;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 
-public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V> {
+public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V> implements DisposableBean {
+
+    /**
+     * 锁、闭锁等脚本参数使用 json 格式，不随 redisTemplate 的格式变化（无状态，所有 redisTemplate 共用）
+     */
+    private static final RedisSerializationContext<?, ?> JSON_CONTEXT = redisSerializationContext(SerializerFormat.JSON, null);
+
+    /**
+     * 订阅连接异常后重新订阅的间隔
+     */
+    private static final Duration RESUBSCRIBE_DELAY = Duration.ofSeconds(1);
+
+    private volatile ScriptBatchExecutor scriptBatchExecutor;
+
+    /**
+     * 主节点 redisTemplate，从节点副本的写操作、锁都使用主节点
+     */
+    private final ClassReactiveRedisTemplate<K, V> primary;
+
+    /**
+     * 从节点延迟监控，没有配置从节点时为空
+     */
+    private volatile ReplicaLagMonitor<ClassReactiveRedisTemplate<K, V>> replicaMonitor;
+
+    /**
+     * 操作对象都是无状态（锁只保存本节点的偏向锁），每个 redisTemplate 只创建一次
+     */
+    private final ReactiveClassOperations<K, ?, ?> classOperations = new ReactiveClassOperationsImpl<K, Object, Object>(this, getSerializationContext());
+
+    private final ReactiveLuaOperations<K, V> luaOperations = new ReactiveLuaOperationsImpl<>(this, getSerializationContext());
+
+    private final ReactiveLockOperationsImpl lockOperations = new ReactiveLockOperationsImpl(this, JSON_CONTEXT, ReactiveLockOperationsImpl.NODE_ID);
+
+    private final ReactiveCountDownLatchOperations countDownLatchOperations = new ReactiveCountDownLatchOperationsImpl(this, JSON_CONTEXT);
+
+    private final ReactiveBarrierOperations barrierOperations = new ReactiveBarrierOperationsImpl(this, JSON_CONTEXT);
 
     public ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
-        super(connectionFactory, redisSerializationContext());
+        this(connectionFactory, SerializerFormat.JSON);
+    }
+
+    public ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, SerializerFormat format) {
+        this(connectionFactory, format, null);
+    }
+
+    public ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, SerializerFormat format, ValueCompressor compressor) {
+        super(connectionFactory, redisSerializationContext(format, compressor));
+        this.primary = this;
+    }
+
+    /**
+     * 从节点副本，序列化方式和主节点相同
+     */
+    private ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, ClassReactiveRedisTemplate<K, V> primary) {
+        super(connectionFactory, primary.getSerializationContext());
+        this.primary = primary;
     }
 
     public ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, RedisSerializationContext<String, String> serializationContext) {
-        super(connectionFactory, redisSerializationContext());
+        this(connectionFactory);
     }
 
     public ClassReactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, RedisSerializationContext<String, String> serializationContext, boolean exposeConnection) {
-        super(connectionFactory, redisSerializationContext(), exposeConnection);
+        super(connectionFactory, redisSerializationContext(SerializerFormat.JSON, null), exposeConnection);
+        this.primary = this;
     }
 
     @SuppressWarnings({"unchecked", "NullableProblems"})
-    private static <K, V> RedisSerializationContext<K, V> redisSerializationContext() {
+    private static <K, V> RedisSerializationContext<K, V> redisSerializationContext(SerializerFormat format, ValueCompressor compressor) {
         RedisSerializationContext<String, String> string = RedisSerializationContext.string();
-        RedisSerializationContext<K, V> clazz = (RedisSerializationContext<K, V>) RedisSerializationContext.fromSerializer(new JacksonRedisSerializer<>());
+        RedisSerializationContext<K, V> clazz = (RedisSerializationContext<K, V>) RedisSerializationContext.fromSerializer(new FormatRedisSerializer<>(format));
+        SerializationPair<V> value = new FormatRedisSerializer<V>(format, compressor).toSerializationPair();
         return new RedisSerializationContext<K, V>() {
 
             @Override
@@ -40,7 +113,7 @@ public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V
 
             @Override
             public SerializationPair getValueSerializationPair() {
-                return clazz.getValueSerializationPair();
+                return value;
             }
 
             @Override
@@ -50,7 +123,7 @@ public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V
 
             @Override
             public SerializationPair<V> getHashValueSerializationPair() {
-                return clazz.getHashValueSerializationPair();
+                return value;
             }
 
             @Override
@@ -60,16 +133,96 @@ public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V
         };
     }
 
+    /**
+     * 配置从节点，只读操作可以通过 {@link ReadPreference#REPLICA_PREFERRED} 从从节点读取
+     *
+     * @param connectionFactories 从节点连接
+     * @param maxStaleness        允许的最大延迟
+     * @param checkPeriod         延迟检查间隔
+     */
+    public synchronized void setReplicas(List<ReactiveRedisConnectionFactory> connectionFactories, Duration maxStaleness, Duration checkPeriod) {
+        Assert.state(isPrimary(), "replica template can not have replicas!");
+        if (replicaMonitor != null) {
+            replicaMonitor.dispose();
+            replicaMonitor = null;
+        }
+        if (connectionFactories == null || connectionFactories.isEmpty()) {
+            return;
+        }
+        List<ClassReactiveRedisTemplate<K, V>> replicas = Lists.newArrayList();
+        connectionFactories.forEach(connectionFactory -> replicas.add(new ClassReactiveRedisTemplate<>(connectionFactory, this)));
+        replicaMonitor = new ReplicaLagMonitor<>(this, replicas, maxStaleness, checkPeriod);
+    }
+
+    /**
+     * @return 从节点副本（用于预加载脚本等），没有配置时为空
+     */
+    public List<ClassReactiveRedisTemplate<K, V>> getReplicas() {
+        ReplicaLagMonitor<ClassReactiveRedisTemplate<K, V>> monitor = replicaMonitor;
+        return monitor == null ? Collections.emptyList() : monitor.getReplicas();
+    }
+
+    /**
+     * @return 是否为主节点
+     */
+    public boolean isPrimary() {
+        return primary == this;
+    }
+
+    /**
+     * @return 主节点 redisTemplate
+     */
+    public ClassReactiveRedisTemplate<K, V> getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return 写操作使用的 redisTemplate（从节点副本时为主节点）
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> ReactiveRedisTemplate<K, V> primaryOf(ReactiveRedisTemplate<K, V> template) {
+        return template instanceof ClassReactiveRedisTemplate ? ((ClassReactiveRedisTemplate<K, V>) template).getPrimary() : template;
+    }
+
+    /**
+     * @param readPreference 读取节点偏好
+     * @return 读取使用的 redisTemplate，没有延迟在允许范围内的从节点时为主节点
+     */
+    public ClassReactiveRedisTemplate<K, V> forRead(ReadPreference readPreference) {
+        ReplicaLagMonitor<ClassReactiveRedisTemplate<K, V>> monitor = primary.replicaMonitor;
+        if (readPreference != ReadPreference.REPLICA_PREFERRED || monitor == null) {
+            return primary;
+        }
+        ClassReactiveRedisTemplate<K, V> replica = monitor.select();
+        return replica == null ? primary : replica;
+    }
+
+    @SuppressWarnings("unchecked")
     public <HK, HV> ReactiveClassOperations<K, HK, HV> opsForClass() {
-        return opsForClass(redisSerializationContext());
+        return (ReactiveClassOperations<K, HK, HV>) classOperations;
+    }
+
+    /**
+     * @param readPreference 读取节点偏好，写操作始终在主节点
+     */
+    public <HK, HV> ReactiveClassOperations<K, HK, HV> opsForClass(ReadPreference readPreference) {
+        return forRead(readPreference).opsForClass();
     }
 
     public <K1, HK, HV> ReactiveClassOperations<K1, HK, HV> opsForClass(RedisSerializationContext<K1, ?> serializationContext) {
         return new ReactiveClassOperationsImpl<>(this, serializationContext);
     }
 
+    @SuppressWarnings("unchecked")
     public <K2, V2> ReactiveLuaOperations<K2, V2> opsForLua() {
-        return opsForLua(redisSerializationContext());
+        return (ReactiveLuaOperations<K2, V2>) (ReactiveLuaOperations<?, ?>) luaOperations;
+    }
+
+    /**
+     * @param readPreference 读取节点偏好，写入的脚本（计数、临时key）始终在主节点
+     */
+    public <K2, V2> ReactiveLuaOperations<K2, V2> opsForLua(ReadPreference readPreference) {
+        return forRead(readPreference).opsForLua();
     }
 
     @SuppressWarnings("unchecked")
@@ -79,7 +232,73 @@ public class ClassReactiveRedisTemplate<K, V> extends ReactiveRedisTemplate<K, V
 
 
     public ReactiveLockOperations opsForLock() {
-        return new ReactiveLockOperationsImpl(this, redisSerializationContext(), UUID.randomUUID());
+        return isPrimary() ? lockOperations : primary.opsForLock();
+    }
+
+    /**
+     * @param lockMetrics 锁的监控指标（不设置时不输出）
+     */
+    public void setLockMetrics(LockMetrics lockMetrics) {
+        lockOperations.setLockMetrics(lockMetrics);
+    }
+
+    /**
+     * 关闭批量执行的连接，停止从节点延迟检查
+     */
+    @Override
+    public synchronized void destroy() {
+        if (scriptBatchExecutor != null) {
+            scriptBatchExecutor.close();
+            scriptBatchExecutor = null;
+        }
+        if (replicaMonitor != null) {
+            replicaMonitor.dispose();
+            replicaMonitor = null;
+        }
+    }
+
+    /**
+     * @return lua脚本批量执行（高频调用合并成一次网络写出，连接异步建立，不阻塞调用线程）
+     */
+    public ScriptBatchExecutor opsForScriptBatch() {
+        if (!isPrimary()) {
+            return primary.opsForScriptBatch();
+        }
+        if (scriptBatchExecutor == null) {
+            synchronized (this) {
+                if (scriptBatchExecutor == null) {
+                    scriptBatchExecutor = new ScriptBatchExecutor(this, (RuleLettuceConnectionFactory) getConnectionFactory());
+                }
+            }
+        }
+        return scriptBatchExecutor;
     }
-}
 
+    /**
+     * 订阅 channel，订阅确认后发出一次通知，之后每收到一条消息发出一次通知
+     * <p>
+     * 等待某个状态时每次通知都检查一次状态：订阅确认后的检查能看到订阅建立期间的变化，不会丢失唤醒；
+     * 连接异常时重新建立连接并订阅，重新订阅确认后同样发出一次通知（补上断开期间丢失的消息）
+     *
+     * @param channel channel名
+     * @return 通知（只表示状态可能已经变化）
+     */
+    public Flux<Object> listenToChannelNotifications(String channel) {
+        return Flux.using(() -> getConnectionFactory().getReactiveConnection(),
+                connection -> connection.pubSubCommands().createSubscription()
+                        .flatMapMany(subscription -> Flux.<Object>merge(subscription.receive(),
+                                subscription.subscribe(getSerializationContext().getStringSerializationPair().write(channel))
+                                        .thenReturn(channel))
+                                .doFinally(signal -> subscription.cancel().subscribe())),
+                ReactiveRedisConnection::close)
+                .retryWhen(errors -> errors.delayElements(RESUBSCRIBE_DELAY));
+    }
+
+    public ReactiveCountDownLatchOperations opsForCountDownLatch() {
+        return isPrimary() ? countDownLatchOperations : primary.opsForCountDownLatch();
+    }
+
+    public ReactiveBarrierOperations opsForBarrier() {
+        return isPrimary() ? barrierOperations : primary.opsForBarrier();
+    }
+}
@@ -1,5 +1,7 @@
 package com.uetty.rule.config.redis.template;
 
+import com.uetty.rule.config.redis.serializer.SerializerFormat;
+import com.uetty.rule.config.redis.serializer.ValueCompressor;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 
@@ -9,6 +11,14 @@ public class RedisTemplateRule<K, V> extends ClassReactiveRedisTemplate<K, V> {
         super(connectionFactory);
     }
 
+    public RedisTemplateRule(ReactiveRedisConnectionFactory connectionFactory, SerializerFormat format) {
+        super(connectionFactory, format);
+    }
+
+    public RedisTemplateRule(ReactiveRedisConnectionFactory connectionFactory, SerializerFormat format, ValueCompressor compressor) {
+        super(connectionFactory, format, compressor);
+    }
+
     public RedisTemplateRule(ReactiveRedisConnectionFactory connectionFactory, RedisSerializationContext<String, String> serializationContext) {
         super(connectionFactory, serializationContext);
     }
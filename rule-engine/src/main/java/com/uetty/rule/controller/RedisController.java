@@ -47,6 +47,11 @@ public class RedisController implements RedisLuaApi {
         return redisService.getHashFromZset("user:sroce", "user:detail", "0", "-1");
     }
 
+    @GetMapping("/topUsers")
+    public Mono topUsers(double min, double max, int count) {
+        return redisService.topUsers("user:sroce", min, max, count);
+    }
+
     public static void main(String[] args) throws InterruptedException {
         Mono.delay(Duration.ofMillis(500))
                 .doOnSuccess(a -> System.out.println(1))
@@ -0,0 +1,20 @@
+package com.uetty.rule.entity;
+
+import com.uetty.cloud.utils.JacksonTypeIds;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 实体的 Jackson 类型短id（redis 中写入 "#id" 代替完整类名）
+ * <p>
+ * 新增实体在这里登记，id 写入数据后不能修改或复用
+ */
+@Component
+public class EntityTypeIds {
+
+    @PostConstruct
+    public void register() {
+        JacksonTypeIds.register(100, User.class);
+    }
+}
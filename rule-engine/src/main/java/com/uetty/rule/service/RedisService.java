@@ -1,9 +1,12 @@
 package com.uetty.rule.service;
 
 import com.google.common.collect.Lists;
+import com.uetty.rule.config.redis.operations.RankedValue;
 import com.uetty.rule.config.redis.operations.ReactiveClassOperations;
 import com.uetty.rule.config.redis.operations.ReactiveLockOperations;
 import com.uetty.rule.config.redis.operations.ReactiveLuaOperations;
+import com.uetty.rule.config.redis.replica.ReadPreference;
+import com.uetty.rule.config.redis.shard.RedisTemplateRouter;
 import com.uetty.rule.config.redis.template.RedisTemplateRule;
 import com.uetty.rule.entity.User;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,27 +23,38 @@ public class RedisService {
 
     private final RedisTemplateRule<String, String> redisTemplateRule1;
 
+    private final RedisTemplateRouter redisTemplateRouter;
+
     @Autowired
-    public RedisService(RedisTemplateRule<String, User> redisTemplateRule, RedisTemplateRule<String, String> redisTemplateRule1) {
+    public RedisService(RedisTemplateRule<String, User> redisTemplateRule, RedisTemplateRule<String, String> redisTemplateRule1,
+                        RedisTemplateRouter redisTemplateRouter) {
         this.redisTemplateRule = redisTemplateRule;
         this.redisTemplateRule1 = redisTemplateRule1;
+        this.redisTemplateRouter = redisTemplateRouter;
     }
 
+    @SuppressWarnings("unchecked")
     public Mono<?> classPut(String key, Object value) {
-        return redisTemplateRule.opsForClass().putClass(key, Lists.newArrayList(value, value));
+        return redisTemplateRouter.opsForClass((Class<Object>) value.getClass()).putClass(key, Lists.newArrayList(value, value));
     }
 
     public Mono<List<User>> getHashFromZset(String zsetKey, String hashKey, String start, String end) {
-        ReactiveLuaOperations<String, User> lua = redisTemplateRule.opsForLua();
+        ReactiveLuaOperations<String, User> lua = redisTemplateRule.opsForLua(ReadPreference.REPLICA_PREFERRED);
         return lua.getHashFromSortedSet(zsetKey, hashKey, 0, -1);
     }
 
+    public Mono<List<RankedValue<User>>> topUsers(String zsetKey, double min, double max, int count) {
+        ReactiveLuaOperations<String, User> lua = redisTemplateRule.opsForLua(ReadPreference.REPLICA_PREFERRED);
+        return lua.topByScore(zsetKey, User.class, min, max, count);
+    }
+
     public Mono classGet(String key, Integer userId) {
         User user = new User();
         user.setUserId(userId);
         User user1 = new User();
         user1.setUserId(3);
-        ReactiveClassOperations<String, String, User> classOperations = redisTemplateRule.opsForClass();
+        ReactiveClassOperations<String, String, User> classOperations = redisTemplateRouter.<String, User>getTemplate(User.class, user)
+                .opsForClass(ReadPreference.REPLICA_PREFERRED);
         return classOperations.getClass(key, user);
     }
 
@@ -0,0 +1,12 @@
+-- 到达屏障（KEYS[1]：到达计数，KEYS[2]：当前代数，KEYS[3]：channel，ARGV[1]：参与数量）
+local generation = tonumber(redis.call('get', KEYS[2]) or '0');
+local arrived = redis.call('incr', KEYS[1]);
+if (arrived >= tonumber(ARGV[1])) then
+    -- 最后一个到达，重置计数进入下一代，并通知所有等待者
+    redis.call('del', KEYS[1]);
+    local next = redis.call('incr', KEYS[2]);
+    redis.call('publish', KEYS[3], next);
+    return -1;
+end ;
+-- 返回当前代数，等待者等到代数变大即可继续
+return generation;
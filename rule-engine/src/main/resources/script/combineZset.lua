@@ -0,0 +1,46 @@
+-- 多个排序key合并后分页（KEYS[1]：临时key，KEYS[2]：对象哈希key，KEYS[3...]：排序key，ARGV[1]：zinterstore/zunionstore，ARGV[2]：聚合方式，ARGV[3]：临时key过期时间（毫秒），ARGV[4]：偏移量，ARGV[5]：数量，ARGV[6]：1倒序 0正序，ARGV[7...]：每个排序key的权重，之后为对象属性名）
+-- 临时key存在时直接分页，翻页时不重复合并
+-- 返回：{本页数量, 属性数量, 第一个成员的排名, 成员, 分数, 属性值..., 成员, 分数, 属性值...}
+local setCount = #KEYS - 2;
+if (redis.call('exists', KEYS[1]) == 0) then
+    local args = { KEYS[1], setCount };
+    for i = 1, setCount do
+        args[#args + 1] = KEYS[2 + i];
+    end ;
+    args[#args + 1] = 'WEIGHTS';
+    for i = 1, setCount do
+        args[#args + 1] = ARGV[6 + i];
+    end ;
+    args[#args + 1] = 'AGGREGATE';
+    args[#args + 1] = ARGV[2];
+    redis.call(ARGV[1], unpack(args));
+    redis.call('pexpire', KEYS[1], ARGV[3]);
+end ;
+local stop = tonumber(ARGV[4]) + tonumber(ARGV[5]) - 1;
+local members;
+if (ARGV[6] == '1') then
+    members = redis.call('zrevrange', KEYS[1], ARGV[4], stop, 'WITHSCORES');
+else
+    members = redis.call('zrange', KEYS[1], ARGV[4], stop, 'WITHSCORES');
+end ;
+if (#members == 0) then
+    return { 0 };
+end ;
+local fieldStart = 6 + setCount;
+local fieldCount = #ARGV - fieldStart;
+local result = { #members / 2, fieldCount, tonumber(ARGV[4]) };
+for i = 1, #members, 2 do
+    result[#result + 1] = members[i];
+    result[#result + 1] = members[i + 1];
+    if (fieldCount > 0) then
+        local fields = {};
+        for j = 1, fieldCount do
+            fields[j] = members[i] .. ':' .. ARGV[fieldStart + j];
+        end ;
+        local values = redis.call('hmget', KEYS[2], unpack(fields));
+        for j = 1, fieldCount do
+            result[#result + 1] = values[j];
+        end ;
+    end ;
+end ;
+return result;
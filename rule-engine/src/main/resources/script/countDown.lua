@@ -0,0 +1,12 @@
+-- 计数减一（KEYS[1]：计数key，KEYS[2]：channel，ARGV[1]：归零消息）
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0;
+end ;
+local counter = redis.call('decr', KEYS[1]);
+if (counter <= 0) then
+    -- 计数归零，删除key并通知所有等待者
+    redis.call('del', KEYS[1]);
+    redis.call('publish', KEYS[2], ARGV[1]);
+    return 0;
+end ;
+return counter;
@@ -0,0 +1,16 @@
+-- 滑动窗口查询事件数量（KEYS：计数key，ARGV[1]：当前桶，ARGV[2]：窗口桶数量）
+-- 只读，窗口外的桶在写入时删除或随key过期
+-- 返回：每个计数key窗口内的事件数量
+local oldest = tonumber(ARGV[1]) - tonumber(ARGV[2]) + 1;
+local result = {};
+for k = 1, #KEYS do
+    local total = 0;
+    local buckets = redis.call('hgetall', KEYS[k]);
+    for i = 1, #buckets, 2 do
+        if (tonumber(buckets[i]) >= oldest) then
+            total = total + tonumber(buckets[i + 1]);
+        end ;
+    end ;
+    result[k] = total;
+end ;
+return result;
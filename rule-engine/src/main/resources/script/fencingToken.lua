@@ -0,0 +1,5 @@
+-- 获取当前线程持有的锁的令牌（KEYS[1]：锁名，ARGV[1]：获取锁的线程），没有持有锁时返回空
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return nil;
+end ;
+return tonumber(redis.call('hget', KEYS[1], 'fencingToken'));
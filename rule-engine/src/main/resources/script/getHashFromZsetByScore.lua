@@ -0,0 +1,23 @@
+-- 按分数分页（KEYS[1]：排序key，KEYS[2]：哈希key，ARGV[1]：最小分数，ARGV[2]：最大分数，ARGV[3]：偏移量，ARGV[4]：数量）
+-- 返回：{本页数量, 最后一个分数, 最后一个分数在本页出现的次数, 值...}
+local members = redis.call('zrangebyscore', KEYS[1], ARGV[1], ARGV[2], 'WITHSCORES', 'LIMIT', ARGV[3], ARGV[4]);
+if (#members == 0) then
+    return { 0 };
+end ;
+local keys = {};
+local lastScore;
+local tie = 0;
+for i = 1, #members, 2 do
+    keys[#keys + 1] = members[i];
+    if (members[i + 1] == lastScore) then
+        tie = tie + 1;
+    else
+        lastScore = members[i + 1];
+        tie = 1;
+    end ;
+end ;
+local values = redis.call('hmget', KEYS[2], unpack(keys));
+table.insert(values, 1, tie);
+table.insert(values, 1, lastScore);
+table.insert(values, 1, #keys);
+return values;
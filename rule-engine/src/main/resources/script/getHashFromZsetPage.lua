@@ -0,0 +1,9 @@
+-- 按排名分页（KEYS[1]：排序key，KEYS[2]：哈希key，ARGV[1]：开始点，ARGV[2]：结束点）
+-- 返回：{本页数量, 值...}
+local keys = redis.call('zrange', KEYS[1], ARGV[1], ARGV[2]);
+if (#keys == 0) then
+    return { 0 };
+end ;
+local values = redis.call('hmget', KEYS[2], unpack(keys));
+table.insert(values, 1, #keys);
+return values;
@@ -1,16 +1,28 @@
---判断锁key是否存在（key：锁名，hashkey：获取锁的线程）
+--判断锁key是否存在（KEYS[1]：锁名，KEYS[2]：令牌计数器，hashkey：获取锁的线程）
+--返回正数代表获取成功（锁的令牌，同一个锁单调递增），负数代表其他线程在占用锁（-剩余时间-1）
 if (redis.call('exists', KEYS[1]) == 0) then
-    --如果key不存在，则设置值并设置过期时间（代表没有线程占用锁）
+    --如果key不存在，则设置值并设置过期时间（代表没有线程占用锁），生成新的令牌记录在锁的hash中
+    local token = redis.call('incr', KEYS[2]);
     redis.call('hset', KEYS[1], ARGV[2], 1);
+    redis.call('hset', KEYS[1], 'fencingToken', token);
     redis.call('pexpire', KEYS[1], ARGV[1]);
-    return 0;
+    return token;
 end ;
 --如果key存在，并且hashkey存在（有线程占用锁）
 if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
-    --对hash值自增1，并且给key设置过期时间（当前线程在使用锁）
+    --对hash值自增1，并且给key设置过期时间（当前线程在使用锁），返回原有令牌
     redis.call('hincrby', KEYS[1], ARGV[2], 1);
     redis.call('pexpire', KEYS[1], ARGV[1]);
-    return 0;
+    local token = tonumber(redis.call('hget', KEYS[1], 'fencingToken'));
+    if (token == nil) then
+        token = redis.call('incr', KEYS[2]);
+        redis.call('hset', KEYS[1], 'fencingToken', token);
+    end ;
+    return token;
 end ;
--- key存在，hashkey不存在，返回key的过期时间（其他线程在占用锁，直接返回锁的过期时间）
-return redis.call('pttl', KEYS[1]);
+-- key存在，hashkey不存在（其他线程在占用锁），返回负数，没有过期时间时为-1
+local ttl = redis.call('pttl', KEYS[1]);
+if (ttl < 0) then
+    ttl = 0;
+end ;
+return -ttl - 1;
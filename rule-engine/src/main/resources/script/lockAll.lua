@@ -0,0 +1,32 @@
+-- 一次性获取多个锁（KEYS：前半部分为锁名，后半部分为对应的令牌计数器，ARGV[1]：过期时间，ARGV[2]：获取锁的线程）
+-- 获取成功返回每个锁的令牌，存在被其他线程占用的锁时只返回一个负数（-最大剩余时间-1）
+local size = #KEYS / 2;
+local ttl = 0;
+local locked = false;
+for i = 1, size do
+    -- key存在，并且hashkey不存在（其他线程在占用锁），记录最大的剩余时间
+    if (redis.call('exists', KEYS[i]) == 1 and redis.call('hexists', KEYS[i], ARGV[2]) == 0) then
+        locked = true;
+        local pttl = redis.call('pttl', KEYS[i]);
+        if (pttl > ttl) then
+            ttl = pttl;
+        end ;
+    end ;
+end ;
+-- 存在被其他线程占用的锁，一个都不获取，直接返回最大的过期时间
+if (locked) then
+    return { -ttl - 1 };
+end ;
+-- 全部可以获取，对hash值自增1并设置过期时间（重入时同样自增），没有令牌的锁生成新的令牌
+local tokens = {};
+for i = 1, size do
+    redis.call('hincrby', KEYS[i], ARGV[2], 1);
+    redis.call('pexpire', KEYS[i], ARGV[1]);
+    local token = tonumber(redis.call('hget', KEYS[i], 'fencingToken'));
+    if (token == nil) then
+        token = redis.call('incr', KEYS[i + size]);
+        redis.call('hset', KEYS[i], 'fencingToken', token);
+    end ;
+    tokens[i] = token;
+end ;
+return tokens;
@@ -0,0 +1,18 @@
+-- 带令牌写入对象（KEYS[1]：hash key，ARGV[1]：令牌，ARGV[2]：对象数量n，ARGV[3...n+2]：每个对象的令牌属性（主键:@fencingToken），之后为属性名、属性值）
+-- 令牌按对象记录，不同对象的令牌来自不同的锁，不能互相比较
+local size = tonumber(ARGV[2]);
+local token = tonumber(ARGV[1]);
+-- 任意一个对象的令牌比已写入的旧，全部拒绝写入
+for i = 3, size + 2 do
+    local current = tonumber(redis.call('hget', KEYS[1], ARGV[i]));
+    if (current ~= nil and token < current) then
+        return 0;
+    end ;
+end ;
+for i = 3, size + 2 do
+    redis.call('hset', KEYS[1], ARGV[i], ARGV[1]);
+end ;
+for i = size + 3, #ARGV, 2 do
+    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]);
+end ;
+return 1;
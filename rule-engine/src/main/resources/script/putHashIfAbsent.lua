@@ -0,0 +1,6 @@
+-- 不存在时写入hash属性（KEYS[1]：hash，ARGV：属性、值交替），返回写入的数量
+local count = 0;
+for i = 1, #ARGV, 2 do
+    count = count + redis.call('hsetnx', KEYS[1], ARGV[i], ARGV[i + 1]);
+end ;
+return count;
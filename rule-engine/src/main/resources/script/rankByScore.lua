@@ -0,0 +1,35 @@
+-- 按分数筛选排名（KEYS[1]：排序key，KEYS[2]：对象哈希key，ARGV[1]：最小分数，ARGV[2]：最大分数，ARGV[3]：偏移量，ARGV[4]：数量，ARGV[5]：1倒序 0正序，ARGV[6...]：对象属性名）
+-- 排序key的成员为对象主键，对象属性存储在哈希key的 主键:属性 中
+-- 返回：{本页数量, 属性数量, 第一个成员的排名, 成员, 分数, 属性值..., 成员, 分数, 属性值...}
+local members;
+if (ARGV[5] == '1') then
+    members = redis.call('zrevrangebyscore', KEYS[1], ARGV[2], ARGV[1], 'WITHSCORES', 'LIMIT', ARGV[3], ARGV[4]);
+else
+    members = redis.call('zrangebyscore', KEYS[1], ARGV[1], ARGV[2], 'WITHSCORES', 'LIMIT', ARGV[3], ARGV[4]);
+end ;
+if (#members == 0) then
+    return { 0 };
+end ;
+local rank;
+if (ARGV[5] == '1') then
+    rank = redis.call('zrevrank', KEYS[1], members[1]);
+else
+    rank = redis.call('zrank', KEYS[1], members[1]);
+end ;
+local fieldCount = #ARGV - 5;
+local result = { #members / 2, fieldCount, rank };
+for i = 1, #members, 2 do
+    result[#result + 1] = members[i];
+    result[#result + 1] = members[i + 1];
+    if (fieldCount > 0) then
+        local fields = {};
+        for j = 1, fieldCount do
+            fields[j] = members[i] .. ':' .. ARGV[5 + j];
+        end ;
+        local values = redis.call('hmget', KEYS[2], unpack(fields));
+        for j = 1, fieldCount do
+            result[#result + 1] = values[j];
+        end ;
+    end ;
+end ;
+return result;
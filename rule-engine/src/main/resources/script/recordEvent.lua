@@ -0,0 +1,16 @@
+-- 滑动窗口记录事件（KEYS[1]：计数key，ARGV[1]：当前桶，ARGV[2]：窗口桶数量，ARGV[3]：增加数量，ARGV[4]：过期时间（毫秒））
+-- 每个桶是哈希的一个属性，写入时删除窗口外的桶
+-- 返回：窗口内的事件数量
+local oldest = tonumber(ARGV[1]) - tonumber(ARGV[2]) + 1;
+redis.call('hincrby', KEYS[1], ARGV[1], ARGV[3]);
+local total = 0;
+local buckets = redis.call('hgetall', KEYS[1]);
+for i = 1, #buckets, 2 do
+    if (tonumber(buckets[i]) < oldest) then
+        redis.call('hdel', KEYS[1], buckets[i]);
+    else
+        total = total + tonumber(buckets[i + 1]);
+    end ;
+end ;
+redis.call('pexpire', KEYS[1], ARGV[4]);
+return total;
@@ -0,0 +1,9 @@
+-- 批量续期（KEYS：锁名列表，ARGV[1]：过期时间，ARGV[2]：获取锁的线程），返回续期成功的数量
+local renewed = 0;
+for i = 1, #KEYS do
+    if (redis.call('hexists', KEYS[i], ARGV[2]) == 1) then
+        redis.call('pexpire', KEYS[i], ARGV[1]);
+        renewed = renewed + 1;
+    end ;
+end ;
+return renewed;
@@ -0,0 +1,6 @@
+-- 设置计数（KEYS[1]：计数key，ARGV[1]：计数），计数已存在时不设置
+if (redis.call('exists', KEYS[1]) == 0) then
+    redis.call('set', KEYS[1], ARGV[1]);
+    return 1;
+end ;
+return 0;
@@ -0,0 +1,27 @@
+-- 一次性释放多个锁（KEYS：前半部分为锁名，后半部分为对应的channel，ARGV[1]：释放消息，ARGV[2]：过期时间，ARGV[3]：获取锁的线程）
+local size = #KEYS / 2;
+-- 先判断所有存在的锁是否都被当前线程占有，否则不做任何修改
+for i = 1, size do
+    if (redis.call('exists', KEYS[i]) == 1 and redis.call('hexists', KEYS[i], ARGV[3]) == 0) then
+        return nil;
+    end ;
+end ;
+local released = 1;
+for i = 1, size do
+    if (redis.call('exists', KEYS[i]) == 0) then
+        -- 锁不存在，发布没有锁的消息
+        redis.call('publish', KEYS[i + size], ARGV[1]);
+    else
+        local counter = redis.call('hincrby', KEYS[i], ARGV[3], -1);
+        if (counter > 0) then
+            -- 重入未完全释放，重设过期时间
+            redis.call('pexpire', KEYS[i], ARGV[2]);
+            released = 0;
+        else
+            -- 删除锁key，并发布释放锁
+            redis.call('del', KEYS[i]);
+            redis.call('publish', KEYS[i + size], ARGV[1]);
+        end ;
+    end ;
+end ;
+return released;
@@ -0,0 +1,200 @@
+package com.uetty.rule.config.redis.operations.impl;
+
+import com.google.common.collect.Lists;
+import com.uetty.rule.config.redis.RuleLettuceConnectionFactory;
+import com.uetty.rule.config.redis.script.ScriptConfig;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多节点锁集成测试，在5个独立的redis容器上验证多数节点获取、少数节点失败、有效时间扣除和尽力释放
+ * <p>
+ * 节点不可用通过暂停容器模拟（命令没有响应，只能等待超时），没有docker环境时跳过
+ */
+public class ReactiveRedLockOperationsImplTest {
+
+    private static final int NODES = 5;
+
+    private static final List<GenericContainer<?>> containers = Lists.newArrayList();
+
+    private static final List<StatefulRedisConnection<String, String>> connections = Lists.newArrayList();
+
+    private static RedisClient client;
+
+    private final List<RuleLettuceConnectionFactory> factories = Lists.newArrayList();
+
+    private ReactiveRedLockOperationsImpl redLock;
+
+    private String key;
+
+    @BeforeClass
+    public static void startNodes() throws Exception {
+        Assume.assumeTrue("没有docker环境", DockerClientFactory.instance().isDockerAvailable());
+        ScriptConfig scriptConfig = new ScriptConfig();
+        ReflectionTestUtils.setField(scriptConfig, "luaPath", "/script/");
+        scriptConfig.initScript();
+        client = RedisClient.create();
+        for (int i = 0; i < NODES; i++) {
+            GenericContainer<?> container = new GenericContainer<>("redis:5.0.7-alpine").withExposedPorts(6379);
+            container.start();
+            containers.add(container);
+            connections.add(client.connect(RedisURI.create(container.getContainerIpAddress(), container.getMappedPort(6379))));
+        }
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        connections.forEach(StatefulRedisConnection::close);
+        if (client != null) {
+            client.shutdown();
+        }
+        containers.forEach(GenericContainer::stop);
+    }
+
+    @Before
+    public void setUp() {
+        for (GenericContainer<?> container : containers) {
+            factories.add(factory(container));
+        }
+        redLock = new ReactiveRedLockOperationsImpl(factories, UUID.randomUUID());
+        key = "redlock-test:" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        containers.forEach(ReactiveRedLockOperationsImplTest::resume);
+        factories.forEach(RuleLettuceConnectionFactory::destroy);
+    }
+
+    @Test
+    public void acquiresOnAllNodes() {
+        Long validity = redLock.tryLockWithValidity(key, 10, TimeUnit.SECONDS).block();
+
+        assertNotNull(validity);
+        assertTrue(validity > 0);
+        assertTrue(validity <= ReactiveRedLockOperationsImpl.validity(10000, 0));
+        assertEquals(NODES, lockedNodes());
+    }
+
+    @Test
+    public void acquiresWithMinorityDown() {
+        pause(0);
+        pause(1);
+
+        assertTrue(redLock.tryLock(key, 10, TimeUnit.SECONDS).block());
+        assertEquals(NODES - 2, lockedNodes(2, NODES));
+    }
+
+    @Test
+    public void failsWhenQuorumIsLost() {
+        pause(0);
+        pause(1);
+        pause(2);
+
+        assertNull(redLock.tryLockWithValidity(key, 10, TimeUnit.SECONDS).block());
+        //少数节点上已获取的锁需要释放
+        assertEquals(0, lockedNodes(3, NODES));
+    }
+
+    @Test
+    public void failsWhenMajorityIsHeldByOthers() {
+        ReactiveRedLockOperationsImpl other = new ReactiveRedLockOperationsImpl(factories.subList(0, 3), UUID.randomUUID());
+        assertTrue(other.tryLock(key, 10, TimeUnit.SECONDS).block());
+
+        assertFalse(redLock.tryLock(key, 10, TimeUnit.SECONDS).block());
+        assertEquals(3, lockedNodes());
+    }
+
+    @Test
+    public void validityDeductsElapsedTimeAndDrift() {
+        //暂停一个节点，获取时必须等待这个节点超时（过期时间的1/10）
+        long leaseMillis = 1000;
+        pause(0);
+
+        Long validity = redLock.tryLockWithValidity(key, leaseMillis, TimeUnit.MILLISECONDS).block();
+
+        assertNotNull(validity);
+        assertTrue(validity > 0);
+        assertTrue(validity <= ReactiveRedLockOperationsImpl.validity(leaseMillis, leaseMillis / 10));
+    }
+
+    @Test
+    public void failsWhenValidityIsUsedUp() {
+        //时钟漂移至少2ms，1ms的过期时间不可能在有效期内
+        assertNull(redLock.tryLockWithValidity(key, 1, TimeUnit.MILLISECONDS).block());
+        assertTrue(ReactiveRedLockOperationsImpl.validity(1, 0) <= 0);
+        assertEquals(0, lockedNodes());
+    }
+
+    @Test
+    public void unlockIsBestEffort() {
+        assertTrue(redLock.tryLock(key, 30, TimeUnit.SECONDS).block());
+        pause(0);
+
+        long start = System.currentTimeMillis();
+        redLock.unlock(key).block();
+
+        //不可用的节点只等待单个节点超时（30s/10），不阻塞其他节点
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10));
+        assertEquals(0, lockedNodes(1, NODES));
+        resume(containers.get(0));
+        assertEquals(1, lockedNodes(0, 1));
+    }
+
+    private int lockedNodes() {
+        return lockedNodes(0, NODES);
+    }
+
+    /**
+     * @return [from, to) 范围内持有锁key的节点数量
+     */
+    private int lockedNodes(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (connections.get(i).sync().exists(key) > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static RuleLettuceConnectionFactory factory(GenericContainer<?> container) {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(container.getContainerIpAddress(), container.getMappedPort(6379));
+        RuleLettuceConnectionFactory factory = new RuleLettuceConnectionFactory(config, LettuceClientConfiguration.defaultConfiguration());
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    private static void pause(int node) {
+        DockerClientFactory.instance().client().pauseContainerCmd(containers.get(node).getContainerId()).exec();
+    }
+
+    private static void resume(GenericContainer<?> container) {
+        Boolean paused = DockerClientFactory.instance().client().inspectContainerCmd(container.getContainerId()).exec().getState().getPaused();
+        if (Boolean.TRUE.equals(paused)) {
+            DockerClientFactory.instance().client().unpauseContainerCmd(container.getContainerId()).exec();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.uetty.rule.config.redis.pipeline;
+
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 合并 flush 压测：大量并发的小命令（HGET、EVALSHA 各一半），对比不合并和不同时间窗口的吞吐量、延迟和每次写出的命令数量
+ * <p>
+ * 默认跳过，运行：mvn test -Dtest=FlushCoalescingHandlerLoadTest -Dredis.loadTest=true，
+ * 默认在 redis 容器上运行，-Dredis.loadTest.host / -Dredis.loadTest.port 指定本地 redis 时不启动容器（容器网络会放大延迟差异）
+ */
+@Slf4j
+public class FlushCoalescingHandlerLoadTest {
+
+    private static final int OPERATIONS = 200_000;
+
+    private static final int WARMUP_OPERATIONS = 20_000;
+
+    private static final int CONCURRENCY = 256;
+
+    private static final int MAX_BATCH = 128;
+
+    private static final String HASH = "pipeline-load";
+
+    private static final RedisScript<String> SCRIPT = RedisScript.of("return redis.call('hget', KEYS[1], ARGV[1])", String.class);
+
+    private static final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static GenericContainer<?> container;
+
+    private static String host;
+
+    private static int port;
+
+    private static ClientResources clientResources;
+
+    @BeforeClass
+    public static void setUp() {
+        Assume.assumeTrue("压测默认跳过（-Dredis.loadTest=true 开启）", Boolean.getBoolean("redis.loadTest"));
+        host = System.getProperty("redis.loadTest.host");
+        if (host == null) {
+            Assume.assumeTrue("没有docker环境", DockerClientFactory.instance().isDockerAvailable());
+            container = new GenericContainer<>("redis:5.0.7-alpine").withExposedPorts(6379);
+            container.start();
+            host = container.getContainerIpAddress();
+            port = container.getMappedPort(6379);
+        } else {
+            port = Integer.getInteger("redis.loadTest.port", 6379);
+        }
+        Metrics.globalRegistry.add(registry);
+        clientResources = DefaultClientResources.create();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (clientResources != null) {
+            clientResources.shutdown();
+        }
+        Metrics.globalRegistry.remove(registry);
+        if (container != null) {
+            container.stop();
+        }
+    }
+
+    @Test
+    public void compareCoalescing() {
+        Result off = run("off", clientResources);
+        Result window0 = run("window=0", coalescing(0));
+        Result window50 = run("window=50us", coalescing(50));
+        Result window200 = run("window=200us", coalescing(200));
+
+        log.info("合并 flush 压测（{} 次操作，并发 {}，maxBatch {}）", OPERATIONS, CONCURRENCY, MAX_BATCH);
+        log.info("{}", Result.HEADER);
+        for (Result result : new Result[]{off, window0, window50, window200}) {
+            log.info("{}", result);
+        }
+        //不合并时每个命令单独 flush，开启后并发命令需要合并写出
+        assertEquals(0, off.batchCount);
+        assertTrue(window0.meanBatch > 1);
+    }
+
+    private ClientResources coalescing(long windowMicros) {
+        return clientResources.mutate()
+                .nettyCustomizer(FlushCoalescingHandler.customizer(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(windowMicros)), MAX_BATCH))
+                .build();
+    }
+
+    private Result run(String name, ClientResources resources) {
+        LettuceClientConfiguration clientConfig = LettuceClientConfiguration.builder().clientResources(resources).build();
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port), clientConfig);
+        factory.afterPropertiesSet();
+        try {
+            ReactiveStringRedisTemplate template = new ReactiveStringRedisTemplate(factory);
+            template.opsForHash().put(HASH, "field", "value").block();
+            load(template, WARMUP_OPERATIONS, null);
+
+            //每次写出的命令数量是全局指标，取压测前后的差值
+            DistributionSummary batch = registry.find("redis.pipeline.batch").summary();
+            long batchCountBefore = batch == null ? 0 : batch.count();
+            double batchTotalBefore = batch == null ? 0 : batch.totalAmount();
+            Timer latency = Timer.builder("pipeline.load.latency")
+                    .tag("mode", name)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(registry);
+            long start = System.nanoTime();
+            long completed = load(template, OPERATIONS, latency);
+            long elapsed = System.nanoTime() - start;
+            assertEquals(OPERATIONS, completed);
+
+            batch = registry.find("redis.pipeline.batch").summary();
+            long batchCount = batch == null ? 0 : batch.count() - batchCountBefore;
+            double meanBatch = batchCount == 0 ? 0 : (batch.totalAmount() - batchTotalBefore) / batchCount;
+            ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+            return new Result(name, OPERATIONS * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                    percentiles[0].value(TimeUnit.MICROSECONDS), percentiles[1].value(TimeUnit.MICROSECONDS),
+                    batchCount, meanBatch);
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    /**
+     * @return 完成的操作数量（HGET、EVALSHA 交替）
+     */
+    private long load(ReactiveStringRedisTemplate template, int operations, Timer latency) {
+        return Flux.range(0, operations)
+                .flatMap(i -> {
+                    long start = System.nanoTime();
+                    Mono<?> command = i % 2 == 0
+                            ? template.opsForHash().get(HASH, "field")
+                            : template.execute(SCRIPT, Collections.singletonList(HASH), Collections.singletonList("field")).next();
+                    return command.doOnSuccess(value -> {
+                        if (latency != null) {
+                            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    });
+                }, CONCURRENCY)
+                .count()
+                .block();
+    }
+
+    private static class Result {
+
+        private static final String HEADER = String.format("%-14s %12s %10s %10s %12s %10s", "mode", "ops/s", "p50(us)", "p99(us)", "flushes", "batch");
+
+        private final String name;
+
+        private final long throughput;
+
+        private final double p50;
+
+        private final double p99;
+
+        private final long batchCount;
+
+        private final double meanBatch;
+
+        private Result(String name, long throughput, double p50, double p99, long batchCount, double meanBatch) {
+            this.name = name;
+            this.throughput = throughput;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.batchCount = batchCount;
+            this.meanBatch = meanBatch;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-14s %12d %10.0f %10.0f %12d %10.1f", name, throughput, p50, p99, batchCount, meanBatch);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.uetty.rule.config.redis.serializer;
+
+import com.uetty.cloud.utils.JacksonUtil;
+import com.uetty.rule.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.RedisSerializationContext.SerializationPair;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis 序列化基准测试：obj2Byte 生成数组再包装成 ByteBuffer（原 JacksonRedisSerializer），
+ * 和写入线程复用缓冲区、直接读取 ByteBuffer（{@link FormatRedisSerializer#toSerializationPair()}）对比
+ * <p>
+ * 主要对比 gc.alloc.rate.norm（每次操作分配的字节数）。
+ * 运行：先 mvn test-compile 生成基准测试代码，再运行 main 方法（附带 gc 分配统计，相当于 -prof gc）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassSerializersBenchmark {
+
+    private SerializationPair<Object> legacy;
+
+    private SerializationPair<Object> pooled;
+
+    private User user;
+
+    private ByteBuffer legacyBuffer;
+
+    private ByteBuffer pooledBuffer;
+
+    @Setup
+    public void setUp() {
+        legacy = SerializationPair.fromSerializer(new LegacyJacksonRedisSerializer());
+        pooled = new FormatRedisSerializer<>(SerializerFormat.JSON).toSerializationPair();
+        user = new User();
+        user.setUserId(10086);
+        user.setUserName("uetty");
+        legacyBuffer = legacy.write(user);
+        pooledBuffer = pooled.write(user);
+    }
+
+    @Benchmark
+    public ByteBuffer writeLegacy() {
+        return legacy.write(user);
+    }
+
+    @Benchmark
+    public ByteBuffer writePooled() {
+        return pooled.write(user);
+    }
+
+    @Benchmark
+    public Object readLegacy() {
+        return legacy.read(legacyBuffer.duplicate());
+    }
+
+    @Benchmark
+    public Object readPooled() {
+        return pooled.read(pooledBuffer.duplicate());
+    }
+
+    /**
+     * 复用缓冲区之前的 JacksonRedisSerializer
+     */
+    private static class LegacyJacksonRedisSerializer implements RedisSerializer<Object> {
+
+        @Override
+        public byte[] serialize(Object o) throws SerializationException {
+            try {
+                return JacksonUtil.jacksonCode.obj2Byte(o);
+            } catch (IOException e) {
+                throw new SerializationException("序列化失败: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Object deserialize(byte[] bytes) throws SerializationException {
+            try {
+                return JacksonUtil.jacksonCode.byte2Obj(bytes);
+            } catch (IOException e) {
+                throw new SerializationException("反序列化失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ClassSerializersBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -2,10 +2,10 @@ package com.uetty.translation;
 
 import com.uetty.cloud.utils.JacksonUtil;
 import com.uetty.cloud.utils.excel.ExcelUtil;
-import com.uetty.cloud.utils.file.FileUtil;
 import com.uetty.cloud.utils.translate.TranslationYouDao;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,12 +15,11 @@ public class TranslationApplication {
 
     public static void main(String[] args) throws IOException {
         String property = System.getProperty("user.dir");
-        String json = FileUtil.readFile(property + "/config.json");
-        Config config =  JacksonUtil.jackson.json2Obj(json, Config.class);
+        Config config = JacksonUtil.jackson.file2Obj(Paths.get(property, "config.json"), Config.class);
         Map<String, Map<String, List<String>>> data = ExcelUtil.getData(config.getXmlPath());
-        String ss = JacksonUtil.jackson.obj2Json(data);
-        System.err.println(ss);
-        System.err.println(new String(ss.getBytes(), "UTF-8"));
+        //直接写入输出，不生成整个json字符串
+        JacksonUtil.jackson.obj2Stream(data, System.err);
+        System.err.println();
         transAndOut(config, data);
     }
 